@@ -0,0 +1,116 @@
+package bzh.bioop.assembly;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the hot paths of the greedy assembly, on synthetic reads.
+ *
+ * Build and run with:
+ *   mvn -P benchmark package
+ *   java -jar target/benchmarks.jar AssemblyBenchmark -prof gc
+ * -prof gc adds the bytes allocated per operation (gc.alloc.rate.norm),
+ * the parameters can be changed with -p, for example -p readLength=150.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssemblyBenchmark {
+
+	@Param({"100", "250"})
+	public int readLength;
+
+	@Param({"10"})
+	public double coverage;
+
+	@Param({"0", "0.02"})
+	public double errorRate;
+
+	@Param({"1000", "10000"})
+	public int readCount;
+
+	@Param({"0.05"})
+	public float perror;
+
+	private ReadPool pool;
+	private KmerIndex index;
+	private Contig contig; // never modified, fusion works on a copy
+	private Read first; // first read of the contig
+	private Read read; // read overlapping the end of the contig by half its length
+	private int overlap;
+	private String suffix;
+	private String prefix;
+
+	@Setup
+	public void setup() {
+		ReadGenerator generator = new ReadGenerator(ReadGenerator.genomeLength(readLength, readCount, coverage), 42);
+		pool = generator.reads(readCount, readLength, errorRate);
+		index = new KmerIndex(pool);
+		first = pool.get(0); // starts at the beginning of the genome
+		contig = new Contig(first);
+		pool.consume(0); // like the greedy loop
+		read = new Read(generator.read(readLength / 2, readLength, errorRate));
+		overlap = contig.exactOverlap(read);
+		suffix = first.getSeq().substring(readLength / 2);
+		prefix = read.getSeq().substring(0, readLength - readLength / 2);
+	}
+
+	@Benchmark
+	public int bestOverlap() {
+		return contig.bestOverlap(read);
+	}
+
+	@Benchmark
+	public int bestOverlapWithError() {
+		return contig.bestOverlapWithError(read, perror);
+	}
+
+	@Benchmark
+	public int exactOverlap() {
+		return contig.exactOverlap(read);
+	}
+
+	@Benchmark
+	public int approximateOverlap() {
+		return contig.approximateOverlap(read, perror);
+	}
+
+	@Benchmark
+	public boolean nearlyEquals() {
+		return Read.nearlyEquals(suffix, prefix, perror);
+	}
+
+	@Benchmark
+	public int nextRead() {
+		return contig.nextRead(pool);
+	}
+
+	@Benchmark
+	public int nextReadWithError() {
+		return contig.nextReadWithError(pool, perror);
+	}
+
+	@Benchmark
+	public int nextReadIndexed() {
+		return contig.nextRead(index);
+	}
+
+	@Benchmark
+	public Contig fusion() {
+		return new Contig(first).fusion(read, overlap); // includes the copy of the first read
+	}
+}
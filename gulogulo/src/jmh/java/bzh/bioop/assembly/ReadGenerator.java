@@ -0,0 +1,81 @@
+package bzh.bioop.assembly;
+
+import java.util.SplittableRandom;
+
+/**
+ * Synthetic data for the benchmarks: a random genome and reads sampled
+ * uniformly from it, with substitution errors.
+ *
+ * The same seed gives the same genome and the same reads, so the results
+ * of two runs of the benchmarks can be compared.
+ */
+public class ReadGenerator {
+
+	private static final String NUCLEOTIDES = "ACGT";
+
+	private final SplittableRandom random;
+	private final String genome;
+
+	/**
+	 * Create a random genome
+	 * @param genomeLength the length of the genome
+	 * @param seed the seed of the generator
+	 */
+	public ReadGenerator(int genomeLength, long seed) {
+		random = new SplittableRandom(seed);
+		char[] g = new char[genomeLength];
+		for (int i = 0; i < genomeLength; i++) {
+			g[i] = NUCLEOTIDES.charAt(random.nextInt(4));
+		}
+		genome = new String(g);
+	}
+
+	/**
+	 * Length of the genome giving a coverage with a number of reads
+	 * @param readLength the length of the reads
+	 * @param readCount the number of reads
+	 * @param coverage the mean number of reads covering a base
+	 * @return the length of the genome
+	 */
+	public static int genomeLength(int readLength, int readCount, double coverage) {
+		return Math.max(readLength + 1, (int) ((long) readLength * readCount / coverage));
+	}
+
+	/**
+	 * Sample reads from the genome. The first read starts at the beginning of
+	 * the genome, so the greedy loop can extend it.
+	 * @param readCount the number of reads
+	 * @param readLength the length of the reads
+	 * @param errorRate the probability of a substitution at each base
+	 * @return the pool of the reads
+	 */
+	public ReadPool reads(int readCount, int readLength, double errorRate) {
+		ReadPool pool = new ReadPool();
+		for (int n = 0; n < readCount; n++) {
+			int start = n == 0 ? 0 : random.nextInt(genome.length() - readLength + 1);
+			pool.add(new Read(read(start, readLength, errorRate)));
+		}
+		return pool;
+	}
+
+	/**
+	 * One read of the genome
+	 * @param start the position of the read in the genome
+	 * @param readLength the length of the read
+	 * @param errorRate the probability of a substitution at each base
+	 * @return the sequence of the read
+	 */
+	public String read(int start, int readLength, double errorRate) {
+		char[] r = genome.substring(start, start + readLength).toCharArray();
+		for (int i = 0; i < r.length; i++) {
+			if (random.nextDouble() < errorRate) {
+				r[i] = NUCLEOTIDES.charAt((NUCLEOTIDES.indexOf(r[i]) + 1 + random.nextInt(3)) & 3);
+			}
+		}
+		return new String(r);
+	}
+
+	public String getGenome() {
+		return genome;
+	}
+}
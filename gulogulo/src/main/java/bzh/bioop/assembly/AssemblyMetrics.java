@@ -0,0 +1,302 @@
+package bzh.bioop.assembly;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Metrics of the assembly: counters and histograms updated by the overlap
+ * computations and the fusions, and the wall time of the phases of a run.
+ *
+ * There is one instance per assembly: AssemblyMetrics.get() is the one of
+ * a single run, registered on JMX, and each sample of a batch has its own,
+ * named after the sample. The counters are LongAdder, so the threads
+ * scoring the reads do not contend on them; the hot loops count locally
+ * and add once per call. The metrics are exposed
+ * through JMX (AssemblyMetricsMXBean), as JFR events (fusions and phases),
+ * and by a summary line printed at most once per report interval.
+ */
+public final class AssemblyMetrics implements AssemblyMetricsMXBean {
+
+	private static final AssemblyMetrics INSTANCE = new AssemblyMetrics(null);
+	private static final EventType FUSION_EVENT = EventType.getEventType(FusionEvent.class);
+
+	private final String name; // prefix of the report lines, null for none
+
+	private final LongAdder overlapComputations = new LongAdder();
+	private final LongAdder candidatesScanned = new LongAdder();
+	private final LongAdder basesCompared = new LongAdder();
+	private final LongAdder fusions = new LongAdder();
+	private final AtomicLong contigLength = new AtomicLong();
+	private final LongAdder[] fusionOverlaps = newHistogram();
+	private final LongAdder[] candidates = newHistogram();
+	private final Map<String, Long> phaseMillis = new LinkedHashMap<>();
+
+	private volatile long reportIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+	private volatile long nextReport = System.nanoTime();
+	private PrintStream out = System.err;
+
+	/**
+	 * Create the metrics of one assembly
+	 * @param name the name of the assembly, printed in the report lines, null for none
+	 */
+	public AssemblyMetrics(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Accessor for the metrics of a single run, the default of the contigs
+	 * and of the assemblers
+	 */
+	public static AssemblyMetrics get() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Register the metrics on the platform MBean server, once
+	 */
+	public synchronized void registerMBean() {
+		try {
+			ObjectName name = new ObjectName("bzh.bioop.assembly:type=AssemblyMetrics");
+			if (!ManagementFactory.getPlatformMBeanServer().isRegistered(name)) {
+				ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException("cannot register the assembly metrics", e);
+		}
+	}
+
+	// --- Updates ---
+
+	/**
+	 * Count overlap computations
+	 * @param count the number of overlaps computed
+	 * @param bases the number of bases compared by these computations
+	 */
+	public void overlaps(long count, long bases) {
+		overlapComputations.add(count);
+		basesCompared.add(bases);
+	}
+
+	/**
+	 * Count the candidates of one selection of the next read
+	 */
+	public void selection(long nbCandidates) {
+		candidatesScanned.add(nbCandidates);
+		candidates[bucket(nbCandidates)].increment();
+	}
+
+	/**
+	 * Count a fusion
+	 * @param overlap the overlap of the read with the contig
+	 * @param length the length of the contig after the fusion
+	 */
+	public void fusion(int overlap, int length) {
+		fusions.increment();
+		fusionOverlaps[bucket(overlap)].increment();
+		contigLength.set(length);
+		if (FUSION_EVENT.isEnabled()) { // no event is allocated when JFR does not record it
+			FusionEvent event = new FusionEvent();
+			if (event.shouldCommit()) {
+				event.overlap = overlap;
+				event.contigLength = length;
+				event.commit();
+			}
+		}
+	}
+
+	/**
+	 * Start a phase of the run, to be closed at its end:
+	 * try (AssemblyMetrics.Phase p = metrics.phase("index")) { ... }
+	 * @param name the name of the phase
+	 * @return the running phase
+	 */
+	public Phase phase(String name) {
+		return new Phase(name);
+	}
+
+	/**
+	 * A phase of the run: its wall time is recorded when it is closed
+	 */
+	public final class Phase implements AutoCloseable {
+		private final String name;
+		private final long start = System.nanoTime();
+		private final PhaseEvent event = new PhaseEvent();
+
+		private Phase(String name) {
+			this.name = name;
+			event.begin();
+		}
+
+		@Override
+		public void close() {
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			synchronized (phaseMillis) {
+				phaseMillis.merge(name, millis, Long::sum);
+			}
+			event.end();
+			if (event.shouldCommit()) {
+				event.phase = name;
+				event.commit();
+			}
+		}
+	}
+
+	// --- Reports ---
+
+	/**
+	 * Set the minimum time between two summary lines
+	 */
+	public void setReportInterval(long interval, TimeUnit unit) {
+		reportIntervalNanos = unit.toNanos(interval);
+		nextReport = System.nanoTime() + reportIntervalNanos;
+	}
+
+	public void setOutput(PrintStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * Print the summary line if the report interval has elapsed since the last one
+	 * @param liveReads the number of reads still to assemble
+	 */
+	public void progress(int liveReads) {
+		long now = System.nanoTime();
+		if (now - nextReport < 0) {
+			return;
+		}
+		nextReport = now + reportIntervalNanos;
+		out.println("[progress] " + prefix() + summary() + ", " + liveReads + " reads to assemble");
+	}
+
+	/**
+	 * Print the wall time of the phases
+	 */
+	public void printPhases() {
+		StringBuilder sb = new StringBuilder("[phases]");
+		if (name != null) {
+			sb.append(' ').append(name).append(':');
+		}
+		for (Map.Entry<String, Long> e : getPhaseMillis().entrySet()) {
+			sb.append(' ').append(e.getKey()).append('=').append(e.getValue()).append("ms");
+		}
+		out.println(sb);
+		out.println("[metrics] " + prefix() + summary());
+	}
+
+	private String prefix() {
+		return name == null ? "" : name + ": ";
+	}
+
+	private String summary() {
+		return fusions.sum() + " fusions, contig of " + contigLength.get() + " bases, "
+				+ overlapComputations.sum() + " overlaps computed, "
+				+ candidatesScanned.sum() + " candidates, " + basesCompared.sum() + " bases compared";
+	}
+
+	// --- Histograms ---
+
+	private static LongAdder[] newHistogram() {
+		LongAdder[] h = new LongAdder[65];
+		for (int b = 0; b < h.length; b++) {
+			h[b] = new LongAdder();
+		}
+		return h;
+	}
+
+	/**
+	 * Bucket of a value: 0 for 0, b for [2^(b-1), 2^b)
+	 */
+	static int bucket(long value) {
+		return 64 - Long.numberOfLeadingZeros(Math.max(0, value));
+	}
+
+	private static long[] snapshot(LongAdder[] h) {
+		int last = h.length - 1;
+		while (last > 0 && h[last].sum() == 0) {
+			last--;
+		}
+		long[] values = new long[last + 1];
+		for (int b = 0; b <= last; b++) {
+			values[b] = h[b].sum();
+		}
+		return values;
+	}
+
+	// --- MXBean ---
+
+	@Override
+	public long getOverlapComputations() {
+		return overlapComputations.sum();
+	}
+
+	@Override
+	public long getCandidatesScanned() {
+		return candidatesScanned.sum();
+	}
+
+	@Override
+	public long getBasesCompared() {
+		return basesCompared.sum();
+	}
+
+	@Override
+	public long getFusions() {
+		return fusions.sum();
+	}
+
+	@Override
+	public long getContigLength() {
+		return contigLength.get();
+	}
+
+	@Override
+	public long[] getFusionOverlapHistogram() {
+		return snapshot(fusionOverlaps);
+	}
+
+	@Override
+	public long[] getCandidatesHistogram() {
+		return snapshot(candidates);
+	}
+
+	@Override
+	public Map<String, Long> getPhaseMillis() {
+		synchronized (phaseMillis) {
+			return new LinkedHashMap<>(phaseMillis);
+		}
+	}
+
+	// --- JFR events ---
+
+	@Name("bzh.bioop.assembly.Fusion")
+	@Label("Fusion")
+	@Category("Assembly")
+	static final class FusionEvent extends Event {
+		@Label("Overlap")
+		int overlap;
+		@Label("Contig length")
+		int contigLength;
+	}
+
+	@Name("bzh.bioop.assembly.Phase")
+	@Label("Assembly phase")
+	@Category("Assembly")
+	static final class PhaseEvent extends Event {
+		@Label("Phase")
+		String phase;
+	}
+}
@@ -0,0 +1,46 @@
+package bzh.bioop.assembly;
+
+import java.util.Map;
+
+/**
+ * Management interface of the assembly metrics, registered on the platform
+ * MBean server as bzh.bioop.assembly:type=AssemblyMetrics
+ */
+public interface AssemblyMetricsMXBean {
+
+	/**
+	 * Number of overlaps computed between the contig and a read
+	 */
+	long getOverlapComputations();
+
+	/**
+	 * Number of candidate reads considered by the selection of the next read
+	 */
+	long getCandidatesScanned();
+
+	/**
+	 * Number of bases compared by the overlap computations
+	 */
+	long getBasesCompared();
+
+	long getFusions();
+
+	long getContigLength();
+
+	/**
+	 * Histogram of the overlaps of the fusions: element b counts the
+	 * overlaps in [2^(b-1), 2^b), element 0 the overlaps of 0
+	 */
+	long[] getFusionOverlapHistogram();
+
+	/**
+	 * Histogram of the number of candidates of each selection, with the same
+	 * power of two buckets
+	 */
+	long[] getCandidatesHistogram();
+
+	/**
+	 * Wall time of each phase of the run, in milliseconds
+	 */
+	Map<String, Long> getPhaseMillis();
+}
@@ -0,0 +1,283 @@
+package bzh.bioop.assembly;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Assembly of many samples in a single JVM, with the same options for all
+ * of them: one FASTA file per sample, named after the read file without
+ * its extensions, so two read files cannot differ only by their extension.
+ *
+ * Each sample runs on its own virtual thread, which blocks cheaply while
+ * its reads are loaded and its FASTA file is written. The assemblies
+ * themselves are CPU bound: at most workers of them run at the same time,
+ * and at most 2 * workers samples are in memory. The JIT compiled code is
+ * shared by all the samples, so the warmup is paid once for the batch.
+ * Each sample has its own AssemblyMetrics, so its progress lines and its
+ * summary only count its own reads.
+ */
+public class BatchAssembly {
+
+	private final Path output;
+	private final float perror;
+	private final Semaphore assembling; // one permit per assembly running
+	private final Semaphore loaded; // one permit per sample in memory
+	private boolean gzip;
+	private long reportIntervalNanos = TimeUnit.SECONDS.toNanos(1);
+	private String mode = "greedy";
+	private boolean correct;
+	private int kmer = 21;
+	private int minCount = 2;
+	private boolean bothStrands;
+	private boolean fmIndex;
+	private boolean verbose;
+
+	/**
+	 * Create a batch
+	 * @param output the directory of the FASTA files, created if needed
+	 * @param workers the maximum number of assemblies running at the same time
+	 * @param perror pourcentage of errors accepted in the overlaps
+	 */
+	public BatchAssembly(Path output, int workers, float perror) {
+		if (workers < 1) {
+			throw new IllegalArgumentException("at least one worker is needed: " + workers);
+		}
+		this.output = output;
+		this.perror = perror;
+		this.assembling = new Semaphore(workers);
+		this.loaded = new Semaphore(2 * workers);
+	}
+
+	/**
+	 * List the read files of a batch
+	 * @param input a directory, whose regular files are the samples, or a
+	 * manifest with the path of one sample per line, relative to the
+	 * manifest; empty lines and lines starting with # are ignored
+	 * @return the paths of the read files, in the order of the manifest or
+	 * of their names
+	 */
+	public static List<Path> samples(Path input) throws IOException {
+		List<Path> samples = new ArrayList<>();
+		if (Files.isDirectory(input)) {
+			try (Stream<Path> files = Files.list(input)) {
+				files.filter(Files::isRegularFile).sorted().forEach(samples::add);
+			}
+			return samples;
+		}
+		Path dir = input.toAbsolutePath().getParent();
+		for (String line : Files.readAllLines(input)) {
+			line = line.strip();
+			if (!line.isEmpty() && !line.startsWith("#")) {
+				samples.add(dir.resolve(line));
+			}
+		}
+		return samples;
+	}
+
+	/**
+	 * Name of the sample of a read file: its file name without the
+	 * extensions of the read formats and of gzip
+	 */
+	static String sampleName(Path file) {
+		String name = file.getFileName().toString();
+		if (name.endsWith(".gz")) {
+			name = name.substring(0, name.length() - 3);
+		}
+		for (String ext : new String[] { ".txt", ".fa", ".fasta", ".fq", ".fastq" }) {
+			if (name.endsWith(ext) && name.length() > ext.length()) {
+				return name.substring(0, name.length() - ext.length());
+			}
+		}
+		return name;
+	}
+
+	/**
+	 * Assemble the samples and wait for all of them. A sample that fails is
+	 * reported on the error output, the others are still assembled.
+	 * @param samples the read files
+	 * @return the number of samples that failed
+	 */
+	public int run(List<Path> samples) throws IOException, InterruptedException {
+		Map<String, Path> names = new HashMap<>();
+		for (Path sample : samples) {
+			Path previous = names.putIfAbsent(sampleName(sample), sample);
+			if (previous != null) {
+				throw new IllegalArgumentException("samples " + previous + " and " + sample
+						+ " would both be written to " + sampleName(sample));
+			}
+		}
+		Files.createDirectories(output);
+		List<Future<?>> results = new ArrayList<>();
+		try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (Path sample : samples) {
+				results.add(threads.submit(() -> {
+					assemble(sample);
+					return null;
+				}));
+			}
+		} // waits for all the samples
+		// any exception or error of a sample is a failure, an OutOfMemoryError included
+		int failures = 0;
+		for (int i = 0; i < samples.size(); i++) {
+			try {
+				results.get(i).get();
+			} catch (ExecutionException e) {
+				failures++;
+				System.err.println(sampleName(samples.get(i)) + ": " + e.getCause());
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * Compress the FASTA files with gzip
+	 */
+	public void setGzip(boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	/**
+	 * Set the assembly of the samples
+	 * @param mode greedy (default), graph or dbg, like the single assembly
+	 */
+	public void setMode(String mode) {
+		if (!mode.equals("greedy") && !mode.equals("graph") && !mode.equals("dbg")) {
+			throw new IllegalArgumentException("unknown mode: " + mode);
+		}
+		this.mode = mode;
+	}
+
+	/**
+	 * Correct the reads with their k-mers before the assembly, which is then
+	 * done with exact overlaps
+	 */
+	public void setCorrect(boolean correct) {
+		this.correct = correct;
+	}
+
+	/**
+	 * Set the k-mers of the correction and of the De Bruijn graph
+	 * @param k the length of the k-mers
+	 * @param minCount k-mers seen less than minCount times are errors
+	 */
+	public void setKmers(int k, int minCount) {
+		this.kmer = k;
+		this.minCount = minCount;
+	}
+
+	/**
+	 * Greedy mode: also merge the reverse complement reads
+	 */
+	public void setBothStrands(boolean bothStrands) {
+		this.bothStrands = bothStrands;
+	}
+
+	/**
+	 * Greedy mode: find the exact overlaps with an FM-index of the reads
+	 */
+	public void setFmIndex(boolean fmIndex) {
+		this.fmIndex = fmIndex;
+	}
+
+	/**
+	 * Greedy mode: print each fusion on the standard output
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Set the minimum time between two progress lines of a sample
+	 */
+	public void setReportInterval(long interval, TimeUnit unit) {
+		this.reportIntervalNanos = unit.toNanos(interval);
+	}
+
+	/**
+	 * Load, assemble and write one sample
+	 */
+	@SuppressWarnings("try") // the phases are only opened and closed
+	private void assemble(Path sample) throws IOException, InterruptedException {
+		String name = sampleName(sample);
+		AssemblyMetrics metrics = new AssemblyMetrics(name);
+		metrics.setReportInterval(reportIntervalNanos, TimeUnit.NANOSECONDS);
+		loaded.acquire();
+		try {
+			ReadPool pool;
+			try (AssemblyMetrics.Phase phase = metrics.phase("load");
+					ReadSource source = ReadSource.open(sample.toAbsolutePath())) {
+				pool = ReadPool.load(source);
+			}
+			List<Contig> contigs;
+			assembling.acquire();
+			try {
+				contigs = assemble(pool, metrics);
+			} finally {
+				assembling.release();
+			}
+			try (FastaWriter writer = FastaWriter.open(output.resolve(name + (gzip ? ".fasta.gz" : ".fasta")))) {
+				for (int i = 0; i < contigs.size(); i++) {
+					writer.write(contigs.size() == 1 ? name : name + "_" + (i + 1), contigs.get(i));
+				}
+			}
+			if (contigs.size() == 1) {
+				System.out.println(name + ": contig of " + contigs.get(0).getLength() + " bases with "
+						+ contigs.get(0).getReadsCount() + " reads");
+			} else {
+				System.out.println(name + ": " + contigs.size() + " contigs");
+			}
+			metrics.printPhases();
+		} finally {
+			loaded.release();
+		}
+	}
+
+	/**
+	 * Assemble the reads of a sample with the options of the batch
+	 * @return the contigs, a single one in greedy mode
+	 */
+	@SuppressWarnings("try") // the phases are only opened and closed
+	private List<Contig> assemble(ReadPool pool, AssemblyMetrics metrics) {
+		float p = perror;
+		if (correct) {
+			try (AssemblyMetrics.Phase phase = metrics.phase("correct")) {
+				pool = new KmerCorrector(kmer, minCount, 10).correct(pool);
+			}
+			p = 0; // the overlaps of the corrected reads are exact
+		}
+		if (mode.equals("dbg")) {
+			try (AssemblyMetrics.Phase phase = metrics.phase("assembly")) {
+				return new DeBruijnAssembler(pool, kmer, minCount).assemble();
+			}
+		}
+		KmerIndex index;
+		try (AssemblyMetrics.Phase phase = metrics.phase("index")) {
+			index = new KmerIndex(pool);
+		}
+		if (mode.equals("graph")) {
+			OverlapGraphAssembler graph = new OverlapGraphAssembler(index, p);
+			graph.setMetrics(metrics);
+			try (AssemblyMetrics.Phase phase = metrics.phase("assembly")) {
+				return graph.assemble();
+			}
+		}
+		GreedyAssembler assembler = new GreedyAssembler(index, p);
+		assembler.setBothStrands(bothStrands);
+		assembler.setFmIndex(fmIndex);
+		assembler.setVerbose(verbose);
+		assembler.setMetrics(metrics);
+		return List.of(assembler.assemble());
+	}
+}
@@ -0,0 +1,157 @@
+package bzh.bioop.assembly;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+/**
+ * State of a greedy assembly, to resume it after a crash: the packed
+ * contig, its number of fusions, the consumed reads, and the options of
+ * the loop, which must be the same to resume it.
+ *
+ * The file is binary: a magic number and a version, the options, the
+ * number of reads of the pool, the fusions, the flags, the consumed bitset
+ * as longs, then the packed contig. It is written in a temporary file which is then moved on
+ * the previous checkpoint, so a crash while writing keeps the previous one.
+ *
+ * @param contig a copy of the sequence of the contig
+ * @param nbFusions the number of reads merged in the contig
+ * @param consumed the consumed reads of the pool
+ * @param poolSize the number of reads of the pool, to check the reads on resume
+ * @param flipped true if the contig is reverse complemented, to extend its left end
+ * @param options the options of the greedy loop
+ */
+public record Checkpoint(PackedSequence contig, int nbFusions, BitSet consumed, int poolSize, boolean flipped,
+		Options options) {
+
+	private static final int MAGIC = 0x47554c4f; // "GULO"
+	private static final int VERSION = 2;
+
+	/**
+	 * The options of the greedy loop that change the contig
+	 * @param perror pourcentage of errors accepted in the overlaps
+	 * @param bothStrands true if the reverse complement reads are merged too
+	 * @param fmIndex true if the exact overlaps are found with an FM-index
+	 */
+	public record Options(float perror, boolean bothStrands, boolean fmIndex) {
+	}
+
+	/**
+	 * Take a snapshot of an assembly, the copy is cheap next to a step
+	 * @param contig the contig
+	 * @param pool the reads of the assembly
+	 * @param flipped true if the contig is reverse complemented
+	 * @param options the options of the greedy loop
+	 * @return the checkpoint, independent of the next steps
+	 */
+	public static Checkpoint of(Contig contig, ReadPool pool, boolean flipped, Options options) {
+		PackedSequence seq = new PackedSequence(contig.getLength());
+		seq.append(contig.getPacked(), 0, contig.getLength());
+		return new Checkpoint(seq, contig.getReadsCount(), pool.getConsumed(), pool.size(), flipped, options);
+	}
+
+	/**
+	 * Write the checkpoint, replacing the previous one at once
+	 * @param path the checkpoint file
+	 * @throws IOException
+	 */
+	public void write(Path path) throws IOException {
+		Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+		try {
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				out.writeFloat(options.perror());
+				out.writeByte((options.bothStrands() ? 1 : 0) | (options.fmIndex() ? 2 : 0));
+				out.writeInt(poolSize);
+				out.writeInt(nbFusions);
+				out.writeByte(flipped ? 1 : 0);
+				long[] bits = consumed.toLongArray();
+				out.writeInt(bits.length);
+				for (long b : bits) {
+					out.writeLong(b);
+				}
+				contig.write(out);
+			}
+			Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Read the checkpoint of a run, to resume it
+	 * @param path the checkpoint file
+	 * @param options the options of the run
+	 * @return the checkpoint
+	 * @throws IOException if the file cannot be read, or was written with other options
+	 */
+	public static Checkpoint read(Path path, Options options) throws IOException {
+		Checkpoint checkpoint = read(path);
+		if (!checkpoint.options().equals(options)) {
+			throw new IOException("checkpoint of a run with " + checkpoint.options() + ", not " + options + ": " + path);
+		}
+		return checkpoint;
+	}
+
+	/**
+	 * Read a checkpoint file
+	 * @param path the checkpoint file
+	 * @return the checkpoint
+	 * @throws IOException if the file is not a checkpoint, or is truncated or corrupted
+	 */
+	public static Checkpoint read(Path path) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException("not a checkpoint: " + path);
+			}
+			int version = in.readInt();
+			if (version != VERSION) {
+				throw new IOException("unknown checkpoint version " + version + ": " + path);
+			}
+			float perror = in.readFloat();
+			int optionFlags = in.readByte();
+			Options options = new Options(perror, (optionFlags & 1) != 0, (optionFlags & 2) != 0);
+			int poolSize = in.readInt();
+			int nbFusions = in.readInt();
+			if (poolSize < 0 || nbFusions < 0) {
+				throw new IOException("corrupted checkpoint: " + path);
+			}
+			boolean flipped = (in.readByte() & 1) != 0;
+			int nbWords = in.readInt();
+			if (nbWords < 0 || nbWords > (poolSize + 63L) / 64) { // a huge length would be allocated
+				throw new IOException("corrupted checkpoint, " + nbWords + " words for " + poolSize + " reads: " + path);
+			}
+			long[] bits = new long[nbWords];
+			for (int i = 0; i < bits.length; i++) {
+				bits[i] = in.readLong();
+			}
+			PackedSequence contig = PackedSequence.read(in, Files.size(path)); // the file bounds the contig
+			return new Checkpoint(contig, nbFusions, BitSet.valueOf(bits), poolSize, flipped, options);
+		} catch (EOFException e) {
+			throw new IOException("truncated checkpoint: " + path, e);
+		}
+	}
+
+	/**
+	 * Restore the assembly: the consumed reads are consumed in the pool
+	 * @param pool the reads of the assembly, loaded like for the checkpoint
+	 * @return the contig
+	 */
+	public Contig restore(ReadPool pool) {
+		if (pool.size() != poolSize) {
+			throw new IllegalArgumentException("checkpoint of " + poolSize + " reads, the pool has " + pool.size());
+		}
+		for (int id = consumed.nextSetBit(0); id >= 0 && id < poolSize; id = consumed.nextSetBit(id + 1)) {
+			pool.consume(id);
+		}
+		return new Contig(contig, nbFusions);
+	}
+}
@@ -0,0 +1,94 @@
+package bzh.bioop.assembly;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodic checkpoints of an assembly, written by a background thread.
+ *
+ * The loop only takes the snapshot, when isDue: the file is written while
+ * the next steps run. A checkpoint is never queued behind another one, so
+ * a slow disk delays the checkpoints and not the assembly. A failed write
+ * is reported on the error output, and the assembly goes on.
+ */
+public class CheckpointWriter implements Closeable {
+
+	private final Path path;
+	private final long intervalNanos;
+	private final ExecutorService thread = Executors.newSingleThreadExecutor(r -> {
+		Thread t = new Thread(r, "checkpoint");
+		t.setDaemon(true);
+		return t;
+	});
+	private long nextSave;
+	private Future<?> pending; // last write, null before the first one
+
+	/**
+	 * Create the writer of a checkpoint file
+	 * @param path the checkpoint file
+	 * @param interval the minimum time between two checkpoints
+	 * @param unit the unit of interval
+	 */
+	public CheckpointWriter(Path path, long interval, TimeUnit unit) {
+		this.path = path;
+		this.intervalNanos = unit.toNanos(interval);
+		this.nextSave = System.nanoTime() + intervalNanos;
+	}
+
+	/**
+	 * Check if a checkpoint should be taken now: the interval is elapsed and
+	 * the previous checkpoint is written
+	 */
+	public boolean isDue() {
+		return System.nanoTime() - nextSave >= 0 && (pending == null || pending.isDone());
+	}
+
+	/**
+	 * Write a checkpoint in the background
+	 * @param checkpoint the snapshot of the assembly
+	 */
+	public void save(Checkpoint checkpoint) {
+		report();
+		pending = thread.submit(() -> {
+			checkpoint.write(path);
+			return null;
+		});
+		nextSave = System.nanoTime() + intervalNanos;
+	}
+
+	/**
+	 * Wait for the last checkpoint to be written
+	 */
+	@Override
+	public void close() {
+		thread.shutdown();
+		try {
+			thread.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		report();
+	}
+
+	/**
+	 * Report the failure of the last write, if it is done
+	 */
+	private void report() {
+		if (pending == null || !pending.isDone()) {
+			return;
+		}
+		try {
+			pending.get();
+		} catch (ExecutionException e) {
+			System.err.println("checkpoint " + path + " not written: " + e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		pending = null;
+	}
+}
@@ -1,30 +1,41 @@
 package bzh.bioop.assembly;
 
-import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * Represents a contig, ie an assembly of reads
+ * Represents a contig, ie an assembly of reads.
+ * The contig grows in place: fusion appends the read to a growable buffer.
  */
 public class Contig implements Sequence {
 
-	private final int len;
-	private final String contig;
+	private int len;
+	private PackedSequence contig; // 2 bits per nucleotide, grows with the fusions
 	private int nb_fusions; // number of fusion to create the final contig
+	private AssemblyMetrics metrics = AssemblyMetrics.get(); // metrics of the assembly of the contig
 
 	public Contig() {
-		contig = "azertyuiopqsdfghjklmwxcvbnazertyuiopdfghjklmqsdfghjklmllllkjhgfdsqsdfgaaaaaaaaaaacccccccccccccccccccccctttttttttttttttttttddddddddddddddddddhjklm";
+		contig = new PackedSequence("azertyuiopqsdfghjklmwxcvbnazertyuiopdfghjklmqsdfghjklmllllkjhgfdsqsdfgaaaaaaaaaaacccccccccccccccccccccctttttttttttttttttttddddddddddddddddddhjklm");
 		len = contig.length();
 		nb_fusions = 0;
 	}
 
 	public Contig(String s, int nb_fusions) {
+		contig = new PackedSequence(s);
+		len = contig.length();
+		this.nb_fusions = nb_fusions;
+	}
+
+	public Contig(PackedSequence s, int nb_fusions) {
 		contig = s;
 		len = contig.length();
 		this.nb_fusions = nb_fusions;
 	}
 
 	public Contig(Read r) {
-		contig = r.getSeq();
+		contig = new PackedSequence(r.getLength());
+		contig.append(r.getPacked(), 0, r.getLength()); // copy, the read is not modified by the fusions
 		len = contig.length();
 		nb_fusions = 0;
 	}
@@ -37,16 +48,7 @@ public class Contig implements Sequence {
 	 */
     @Override
 	public String fastaFormat() {
-		StringBuilder sb = new StringBuilder();
-		int lineLength = 60;
-		for (int i = 0; i < this.getLength(); i += lineLength) {
-			if (i + lineLength < this.getLength()) {
-				sb.append(this.getSeq(), i, i + lineLength).append("\n");
-			} else {
-				sb.append(this.getSeq().substring(i)).append("\n");
-			}
-		}
-		return sb.toString();
+		return contig.fastaFormat();
 	}
 
 	// --- Assembly methods ---
@@ -72,6 +74,19 @@ public class Contig implements Sequence {
 		return 0;
 	}
 
+	/**
+	 * Returns the length of the maximum suffix-prefix exact match
+	 * between this contig and read r, in linear time.
+	 * Same result as bestOverlap, which is kept as the reference.
+	 * @param the read to align with the contig
+	 * @return the length of the best match read-contig
+	 */
+	public int exactOverlap(Read r) {
+		int overlap = OverlapEngine.suffixPrefix(getSuffix(r.getLength()), r.getPacked(), r.getFailure());
+		assert overlap == bestOverlap(r) : "overlap engine differs from bestOverlap";
+		return overlap;
+	}
+
 	/**
 	 * Returns the length of the maximum suffix-prefix with some errors
 	 * between this contig and read r.
@@ -94,77 +109,415 @@ public class Contig implements Sequence {
 	}
 
 	/**
-	 * Return the index of the read with the largest overlap
+	 * Returns the length of the maximum suffix-prefix with some errors
+	 * between this contig and read r, with the bit-parallel engine.
+	 * Same result as bestOverlapWithError, which is kept as the reference.
+	 * @param the read to align with the contig
+	 * @return the length of the best match read-contig
+	 */
+	public int approximateOverlap(Read r, float perror) {
+		int overlap = OverlapEngine.suffixPrefixWithError(contig, len, r.getErrorPattern(), perror);
+		assert overlap == bestOverlapWithError(r, perror) : "overlap engine differs from bestOverlapWithError";
+		return overlap;
+	}
+
+	/**
+	 * Return the id of the live read with the largest overlap
 	 * if overlap < 8, return -1
-	 * @param a list of reads
-	 * @return the index of the read with the largest overlap
+	 * @param pool the reads
+	 * @return the id of the read with the largest overlap
 	 */
-	public int nextRead(LinkedList<Read> l) {
+	public int nextRead(ReadPool pool) {
 		int bestOverlap = 0;
 		int currentOverlap;
-		int bestIndex = 0;
-		int index = 0;
-		for (Read r : l) {
-			currentOverlap = this.bestOverlap(r);
+		int bestId = 0;
+		long computed = 0;
+		long compared = 0;
+		for (int id = pool.nextLive(0); id >= 0; id = pool.nextLive(id + 1)) {
+			currentOverlap = this.exactOverlap(pool.get(id));
+			computed++;
+			compared += Math.min(len, pool.get(id).getLength());
 			if (currentOverlap > bestOverlap) {
 				bestOverlap = currentOverlap;
-				bestIndex = index;
+				bestId = id;
 			}
-			index++;
 		}
+		metrics.selection(computed); // the reads actually compared
+		metrics.overlaps(computed, compared);
 		if (bestOverlap >= 8) {
-			return bestIndex;
+			return bestId;
 		}
-		return -1; // overlap < 8 or empty list
+		return -1; // overlap < 8 or no live read
 	}
 
 	/**
-	 * Return the index of the read with the largest overlap and max perror pourcentage of errors
+	 * Return the id of the live read with the largest overlap and max perror pourcentage of errors
 	 * if overlap < 8, return -1
-	 * @param a list of reads
-	 * @return the index of the read with the largest overlap
+	 * @param pool the reads
+	 * @param perror pourcentage of errors accepted
+	 * @return the id of the read with the largest overlap
 	 */
-	public int nextReadWithError(LinkedList<Read> l, float perror) {
+	public int nextReadWithError(ReadPool pool, float perror) {
 		int bestOverlap = 0;
 		int currentOverlap;
-		int bestIndex = 0;
-		int index = 0;
-		for (Read r : l) {
-			currentOverlap = this.bestOverlapWithError(r, perror);
+		int bestId = 0;
+		long computed = 0;
+		long compared = 0;
+		for (int id = pool.nextLive(0); id >= 0; id = pool.nextLive(id + 1)) {
+			currentOverlap = this.approximateOverlap(pool.get(id), perror);
+			computed++;
+			compared += Math.min(len, pool.get(id).getLength());
 			if (currentOverlap > bestOverlap) {
 				bestOverlap = currentOverlap;
-				bestIndex = index;
+				bestId = id;
 			}
-			index++;
 		}
+		metrics.selection(computed); // the reads actually compared
+		metrics.overlaps(computed, compared);
 		if (bestOverlap >= 8) {
-			return bestIndex;
+			return bestId;
 		}
-		return -1; // overlap < 8 or empty list
+		return -1; // overlap < 8 or no live read
 	}
 
 	/**
-	 * returns new contig that is the fusion of
-	 * the read r and the contig using their best overlap
-	 * @param the read to merge
-	 * @return the fusionned new contig
+	 * Return the id of the live read with the largest overlap and max perror pourcentage of errors,
+	 * like nextReadWithError, with the reads scored in parallel by the executor.
+	 * The best (overlap, id) pair is reduced deterministically: for the same reads,
+	 * the result is the same as nextReadWithError whatever the number of threads.
+	 * @param pool the reads
+	 * @param perror pourcentage of errors accepted
+	 * @param executor the fork-join pool running the scoring
+	 * @return the id of the read with the largest overlap
 	 */
-	public Contig fusion(Read r) {
-		int overlap = bestOverlap(r);
-		String rseq = r.getSeq();
-		String newContigSeq;
-		if (overlap == 0) {
-			newContigSeq = this.getSeq() + rseq;
+	public int nextReadWithError(ReadPool pool, float perror, ForkJoinPool executor) {
+		long best = bestScannedOverlap(pool, perror, executor);
+		int bestOverlap = (int) (best >>> 32);
+		if (bestOverlap >= 8) {
+			return Integer.MAX_VALUE - (int) best;
+		}
+		return -1; // overlap < 8 or no live read
+	}
+
+	/**
+	 * Score the live reads with ids in [from, to) and return the best one,
+	 * encoded as (overlap << 32 | MAX_VALUE - id) so that the largest value
+	 * is the largest overlap, and the smallest id in case of tie
+	 */
+	private final class BestOverlapTask extends RecursiveTask<Long> {
+		private static final long serialVersionUID = 1L;
+		private final transient ReadPool pool;
+		private final float perror;
+		private final LongAdder scanned; // reads compared by all the tasks
+		private final int from;
+		private final int to;
+		private final int threshold;
+
+		BestOverlapTask(ReadPool pool, float perror, LongAdder scanned, int from, int to, int threshold) {
+			this.pool = pool;
+			this.perror = perror;
+			this.scanned = scanned;
+			this.from = from;
+			this.to = to;
+			this.threshold = threshold;
+		}
+
+		@Override
+		protected Long compute() {
+			if (to - from > threshold) {
+				int mid = (from + to) >>> 1;
+				BestOverlapTask left = new BestOverlapTask(pool, perror, scanned, from, mid, threshold);
+				left.fork();
+				long right = new BestOverlapTask(pool, perror, scanned, mid, to, threshold).compute();
+				return Math.max(left.join(), right);
+			}
+			long best = 0;
+			long computed = 0;
+			long compared = 0;
+			for (int id = pool.nextLive(from); id >= 0 && id < to; id = pool.nextLive(id + 1)) {
+				long overlap = approximateOverlap(pool.get(id), perror);
+				computed++;
+				compared += Math.min(len, pool.get(id).getLength());
+				best = Math.max(best, overlap << 32 | (Integer.MAX_VALUE - id));
+			}
+			scanned.add(computed);
+			metrics.overlaps(computed, compared); // once per leaf task
+			return best;
+		}
+	}
+
+	/**
+	 * Return the id of the read with the largest overlap, like nextRead,
+	 * but only compare the contig with the reads sharing a seed with its end
+	 * @param index the index of the reads of the pool
+	 * @return the id of the read with the largest overlap
+	 */
+	public int nextRead(KmerIndex index) {
+		return idOf(bestIndexedOverlap(index, 0));
+	}
+
+	/**
+	 * Return the id of the read with the largest overlap, like nextRead,
+	 * with the reads whose prefix is a suffix of the contig given by the FM-index
+	 * @param index the FM-index of the reads of the pool
+	 * @return the id of the read with the largest overlap
+	 */
+	public int nextRead(FmIndex index) {
+		ReadPool pool = index.getPool();
+		int bestOverlap = 0;
+		int bestId = -1;
+		long[] hits = index.overlaps(contig, len, 8);
+		metrics.selection(hits.length);
+		for (long hit : hits) { // longest overlap first
+			int id = Integer.MAX_VALUE - (int) hit;
+			if (pool.isLive(id)) {
+				bestOverlap = (int) (hit >>> 32);
+				bestId = id;
+				break;
+			}
+		}
+		// Reads with a non ACGT base can only overlap past their indexed prefix if the contig has one too
+		boolean scan = contig.hasException(Math.max(0, len - index.getMaxReadLength()), len);
+		long computed = 0;
+		long compared = 0;
+		for (int id : index.getTruncated()) {
+			if (!scan || !pool.isLive(id)) {
+				continue;
+			}
+			int overlap = exactOverlap(pool.get(id));
+			computed++;
+			compared += Math.min(len, pool.get(id).getLength());
+			if (overlap > bestOverlap || (overlap == bestOverlap && id < bestId)) {
+				bestOverlap = overlap;
+				bestId = id;
+			}
+		}
+		metrics.overlaps(computed, compared);
+		if (bestOverlap >= 8) {
+			return bestId;
+		}
+		return -1; // overlap < 8 or no live read
+	}
+
+	/**
+	 * Return the id of the read with the largest overlap and max perror pourcentage of errors,
+	 * like nextReadWithError, but only compare the contig with the reads sharing a seed with its end
+	 * @param index the index of the reads of the pool
+	 * @param perror pourcentage of errors accepted
+	 * @return the id of the read with the largest overlap
+	 */
+	public int nextReadWithError(KmerIndex index, float perror) {
+		if (!index.isLossless(perror, 8)) {
+			return nextReadWithError(index.getPool(), perror); // too many errors for the seeds
+		}
+		return idOf(bestIndexedOverlap(index, perror));
+	}
+
+	/**
+	 * Like nextReadWithError(index, perror), but when all the reads have to be
+	 * scanned the scan is run in parallel by the executor
+	 * @param index the index of the reads of the pool
+	 * @param perror pourcentage of errors accepted
+	 * @param executor the fork-join pool running the scan
+	 * @return the id of the read with the largest overlap
+	 */
+	public int nextReadWithError(KmerIndex index, float perror, ForkJoinPool executor) {
+		if (!index.isLossless(perror, 8)) {
+			return nextReadWithError(index.getPool(), perror, executor); // too many errors for the seeds
+		}
+		return idOf(bestIndexedOverlap(index, perror));
+	}
+
+	/**
+	 * Read to merge with the contig, on one strand or the other
+	 * @param id the id of the read in the pools
+	 * @param reverse true if the read is merged as its reverse complement
+	 * @param overlap the overlap between the contig and the read
+	 */
+	public record Extension(int id, boolean reverse, int overlap) {
+	}
+
+	/**
+	 * Find the best read to merge at the end of the contig among the reads
+	 * and their reverse complements. The two strands are searched the same
+	 * way, with the index of each strand; in case of tie the forward read wins.
+	 * @param forward the index of the reads
+	 * @param reverse the index of the reverse complement pool of the reads
+	 * @param perror pourcentage of errors accepted
+	 * @param executor the fork-join pool running the scans, null to scan in the caller thread
+	 * @return the best extension, null if overlap < 8
+	 */
+	public Extension nextExtension(KmerIndex forward, KmerIndex reverse, float perror, ForkJoinPool executor) {
+		long bestForward = bestOverlapOf(forward, perror, executor);
+		long bestReverse = bestOverlapOf(reverse, perror, executor);
+		long best = Math.max(bestForward, bestReverse);
+		int overlap = (int) (best >>> 32);
+		if (overlap < 8) {
+			return null; // overlap < 8 or no live read
+		}
+		return new Extension(Integer.MAX_VALUE - (int) best, bestReverse > bestForward, overlap);
+	}
+
+	/**
+	 * Best (overlap, id) of the reads of an index, encoded like BestOverlapTask
+	 */
+	private long bestOverlapOf(KmerIndex index, float perror, ForkJoinPool executor) {
+		if (index.isLossless(perror, 8)) {
+			return bestIndexedOverlap(index, perror);
+		}
+		return bestScannedOverlap(index.getPool(), perror, executor); // too many errors for the seeds
+	}
+
+	/**
+	 * Best (overlap, id) of the live reads of a pool, encoded like BestOverlapTask
+	 * @param executor the fork-join pool scoring the reads, null to score them in this thread
+	 */
+	private long bestScannedOverlap(ReadPool pool, float perror, ForkJoinPool executor) {
+		LongAdder scanned = new LongAdder();
+		long best;
+		if (executor == null) {
+			best = new BestOverlapTask(pool, perror, scanned, 0, pool.size(), Integer.MAX_VALUE).compute();
 		} else {
-			newContigSeq = this.getSeq() + rseq.substring(overlap);
+			best = executor.invoke(new BestOverlapTask(pool, perror, scanned, 0, pool.size(),
+					Math.max(256, pool.size() / (8 * executor.getParallelism()))));
+		}
+		metrics.selection(scanned.sum()); // the reads actually compared
+		return best;
+	}
+
+	/**
+	 * Decode the id of an (overlap, id) pair
+	 * @return the id, or -1 if overlap < 8
+	 */
+	private static int idOf(long best) {
+		if ((int) (best >>> 32) >= 8) {
+			return Integer.MAX_VALUE - (int) best;
+		}
+		return -1; // overlap < 8 or no live read
+	}
+
+	/**
+	 * Find the read with the largest overlap among the reads of the index.
+	 * Ties are broken like the scan of the pool, by keeping the first read.
+	 * @param index the index of the reads
+	 * @param perror pourcentage of errors accepted, 0 for exact overlaps
+	 * @return the best read encoded like BestOverlapTask, 0 if no read overlaps
+	 */
+	private long bestIndexedOverlap(KmerIndex index, float perror) {
+		ReadPool pool = index.getPool();
+		boolean exact = perror == 0;
+		int bestOverlap = 0;
+		int bestId = -1;
+		long nbCandidates = 0;
+		long nbVerified = 0;
+		long compared = 0;
+		int start = Math.max(0, len - index.getMaxReadLength());
+		for (int q = start; q + index.getK() <= len; q++) { // position of the k-mer in the contig
+			int kmer = index.kmer(contig, q);
+			if (kmer < 0) {
+				continue;
+			}
+			for (int e = index.firstEntry(kmer); e < index.endEntry(kmer); e++) {
+				int id = index.entryRead(e);
+				int s = index.entrySeed(e);
+				if (!pool.isLive(id) || (exact && s != 0)) {
+					continue;
+				}
+				nbCandidates++;
+				int overlap = len - q + s;
+				if (overlap < bestOverlap || (overlap == bestOverlap && id > bestId)
+						|| overlap > len || overlap > pool.get(id).getLength()) {
+					continue;
+				}
+				PackedSequence rseq = pool.get(id).getPacked();
+				nbVerified++;
+				compared += overlap;
+				boolean match = exact ? contig.regionMatches(len - overlap, rseq, 0, overlap)
+						: (float) contig.mismatches(len - overlap, rseq, 0, overlap) / overlap <= perror;
+				if (match) {
+					bestOverlap = overlap;
+					bestId = id;
+				}
+			}
+		}
+		// A read with a non ACGT seed can only miss its seeds where the contig has such a base
+		int[] unseedable = contig.hasException(start, len) ? index.getUnseedable() : new int[0];
+		for (int id : unseedable) {
+			if (!pool.isLive(id)) {
+				continue;
+			}
+			Read r = pool.get(id);
+			int overlap = exact ? exactOverlap(r) : approximateOverlap(r, perror);
+			nbVerified++;
+			compared += Math.min(len, r.getLength());
+			if (overlap > bestOverlap || (overlap == bestOverlap && id < bestId)) {
+				bestOverlap = overlap;
+				bestId = id;
+			}
+		}
+		metrics.selection(nbCandidates);
+		metrics.overlaps(nbVerified, compared);
+		if (bestId < 0) {
+			return 0;
 		}
-		return new Contig(newContigSeq, this.getReadsCount() + 1); // add 1 to nb_fusions
+		return (long) bestOverlap << 32 | (Integer.MAX_VALUE - bestId);
+	}
+
+	/**
+	 * Merge the read r at the end of this contig using their best overlap.
+	 * Only the part of the read after the overlap is appended, in place, so
+	 * the cost is proportional to the read length.
+	 * @param the read to merge
+	 * @return this contig, fusionned with the read
+	 */
+	public Contig fusion(Read r) {
+		int overlap = exactOverlap(r);
+		metrics.overlaps(1, Math.min(len, r.getLength()));
+		return fusion(r, overlap);
+	}
+
+	/**
+	 * Merge the read r at the end of this contig with an overlap already
+	 * known, for example an overlap with errors
+	 * @param the read to merge
+	 * @param overlap the number of bases of r already at the end of the contig
+	 * @return this contig, fusionned with the read
+	 */
+	public Contig fusion(Read r, int overlap) {
+		PackedSequence rseq = r.getPacked();
+		contig.append(rseq, overlap, rseq.length());
+		len = contig.length();
+		nb_fusions++;
+		metrics.fusion(overlap, len);
+		return this;
+	}
+
+	/**
+	 * Replace the contig by its reverse complement, in place. The left end
+	 * becomes the right end: a read whose suffix overlaps the prefix of the
+	 * contig has its reverse complement overlapping the new suffix, so the
+	 * contig is extended to the left with the same overlap engines.
+	 * @return this contig, reverse complemented
+	 */
+	public Contig reverseComplement() {
+		contig = contig.reverseComplement();
+		return this;
+	}
+
+	/**
+	 * Accessor for the end of the contig, the only part that can overlap a
+	 * read. The window is a view on the contig, nothing is copied.
+	 * @param length the maximum length of the window, usually the longest read
+	 * @return the last bases of the contig
+	 */
+	public CharSequence getSuffix(int length) {
+		return contig.window(Math.max(0, len - length), len);
 	}
 
 	// --- Getters & setters ---
 	@Override
 	public String toString() {
-		return contig;
+		return contig.toString();
 	}
 
     @Override
@@ -174,10 +527,34 @@ public class Contig implements Sequence {
 
     @Override
 	public String getSeq() {
+		return contig.getSeq();
+	}
+
+	/**
+	 * Accessor for the packed sequence, used by the assembly without building Strings
+	 * @return the packed sequence
+	 */
+	@Override
+	public PackedSequence getPacked() {
 		return contig;
 	}
 
 	public int getReadsCount() {
 		return nb_fusions;
 	}
+
+	/**
+	 * Accessor for the metrics updated by the overlaps and the fusions of the contig
+	 */
+	AssemblyMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * Set the metrics of the assembly of the contig, AssemblyMetrics.get() by default
+	 * @param metrics the metrics
+	 */
+	public void setMetrics(AssemblyMetrics metrics) {
+		this.metrics = metrics;
+	}
 }
\ No newline at end of file
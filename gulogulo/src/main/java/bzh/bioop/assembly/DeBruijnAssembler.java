@@ -0,0 +1,182 @@
+package bzh.bioop.assembly;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Assembly with a De Bruijn graph, for high coverage short reads.
+ *
+ * The k-mers of all the reads are counted in a LongIntHashMap, k-mers seen
+ * less than minCount times are dropped as sequencing errors, then each
+ * unitig of the graph of the remaining (solid) k-mers gives a contig. Like
+ * the greedy loop, reads are assumed to be on the same strand.
+ */
+public class DeBruijnAssembler {
+
+	private final ReadPool pool;
+	private final int k;
+	private final int minCount;
+	private final long kmerMask;
+
+	private LongIntHashMap solid; // solid k-mer -> count, negative once in a contig
+
+	/**
+	 * Create the assembler of the reads of a pool
+	 * @param pool the reads to assemble
+	 * @param k the length of the k-mers, between 2 and 31
+	 * @param minCount the minimum number of occurrences of a solid k-mer
+	 */
+	public DeBruijnAssembler(ReadPool pool, int k, int minCount) {
+		if (k < 2 || k > 31) {
+			throw new IllegalArgumentException("k must be between 2 and 31: " + k);
+		}
+		this.pool = pool;
+		this.k = k;
+		this.minCount = minCount;
+		this.kmerMask = KmerCounter.mask(k);
+	}
+
+	/**
+	 * Count the k-mers and compact the unitigs of the solid ones
+	 * @return the contigs, one per unitig
+	 */
+	public List<Contig> assemble() {
+		countKmers();
+		return compactUnitigs();
+	}
+
+	// --- Counting ---
+
+	/**
+	 * Count the k-mers of every read, then keep the solid ones in a table
+	 * sized for them only
+	 */
+	private void countKmers() {
+		LongIntHashMap counts = KmerCounter.count(pool, k);
+		int nbSolid = 0;
+		for (int i = 0; i < counts.capacity(); i++) {
+			if (counts.isUsed(i) && counts.valueAt(i) >= minCount) {
+				nbSolid++;
+			}
+		}
+		solid = new LongIntHashMap(nbSolid);
+		for (int i = 0; i < counts.capacity(); i++) {
+			if (counts.isUsed(i) && counts.valueAt(i) >= minCount) {
+				solid.put(counts.keyAt(i), counts.valueAt(i));
+			}
+		}
+	}
+
+	// --- Graph ---
+
+	private long successor(long kmer, int base) {
+		return ((kmer << 2) | base) & kmerMask;
+	}
+
+	private long predecessor(long kmer, int base) {
+		return (kmer >>> 2) | ((long) base << (2 * (k - 1)));
+	}
+
+	private int outDegree(long kmer) {
+		int d = 0;
+		for (int b = 0; b < 4; b++) {
+			if (solid.containsKey(successor(kmer, b))) {
+				d++;
+			}
+		}
+		return d;
+	}
+
+	private int inDegree(long kmer) {
+		int d = 0;
+		for (int b = 0; b < 4; b++) {
+			if (solid.containsKey(predecessor(kmer, b))) {
+				d++;
+			}
+		}
+		return d;
+	}
+
+	/**
+	 * The only successor of a k-mer, -1 if it has 0 or several successors
+	 */
+	private long uniqueSuccessor(long kmer) {
+		long next = -1;
+		for (int b = 0; b < 4; b++) {
+			long s = successor(kmer, b);
+			if (solid.containsKey(s)) {
+				if (next >= 0) {
+					return -1;
+				}
+				next = s;
+			}
+		}
+		return next;
+	}
+
+	/**
+	 * The only predecessor of a k-mer, -1 if it has 0 or several predecessors
+	 */
+	private long uniquePredecessor(long kmer) {
+		long previous = -1;
+		for (int b = 0; b < 4; b++) {
+			long p = predecessor(kmer, b);
+			if (solid.containsKey(p)) {
+				if (previous >= 0) {
+					return -1;
+				}
+				previous = p;
+			}
+		}
+		return previous;
+	}
+
+	private boolean isVisited(long kmer) {
+		return solid.get(kmer) < 0;
+	}
+
+	private void visit(long kmer) {
+		solid.put(kmer, -Math.abs(solid.get(kmer)));
+	}
+
+	// --- Unitigs ---
+
+	/**
+	 * Extend every solid k-mer not yet used to the left then to the right
+	 * while the path has no branch
+	 */
+	private List<Contig> compactUnitigs() {
+		List<Contig> contigs = new ArrayList<>();
+		for (int i = 0; i < solid.capacity(); i++) {
+			if (!solid.isUsed(i) || solid.valueAt(i) < 0) {
+				continue;
+			}
+			long start = solid.keyAt(i);
+			// go back to the first k-mer of the unitig
+			long first = start;
+			long p;
+			while ((p = uniquePredecessor(first)) >= 0 && outDegree(p) == 1 && p != start && !isVisited(p)) {
+				first = p;
+			}
+			PackedSequence seq = new PackedSequence(2 * k);
+			for (int j = k - 1; j >= 0; j--) {
+				seq.appendBase("ACGT".charAt((int) (first >>> (2 * j)) & 3));
+			}
+			visit(first);
+			long cur = first;
+			long s;
+			while ((s = uniqueSuccessor(cur)) >= 0 && inDegree(s) == 1 && !isVisited(s)) {
+				seq.appendBase("ACGT".charAt((int) s & 3));
+				visit(s);
+				cur = s;
+			}
+			seq.trimToSize();
+			contigs.add(new Contig(seq, 0));
+		}
+		return contigs;
+	}
+
+	public int getSolidCount() {
+		return solid == null ? 0 : solid.size();
+	}
+}
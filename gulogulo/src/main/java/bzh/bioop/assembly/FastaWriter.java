@@ -0,0 +1,113 @@
+package bzh.bioop.assembly;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writer of sequences in FASTA format, 60 bases per line.
+ *
+ * The bases are copied from the packed sequence to a buffer which is
+ * written to a channel when it is full: the wrapped sequence is never
+ * built as a String, whatever the length of the contig. The header of a
+ * sequence gives its id and length, and the number of reads of a contig.
+ */
+public class FastaWriter implements Closeable {
+
+	public static final int LINE_LENGTH = 60;
+
+	private final WritableByteChannel channel;
+	private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+
+	/**
+	 * Create a writer on a channel, closed with the writer
+	 * @param channel the channel
+	 */
+	public FastaWriter(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+
+	/**
+	 * Open a FASTA file, compressed with gzip if its name ends with .gz
+	 * @param path the path of the file, replaced if it exists
+	 * @return the writer of the file
+	 * @throws IOException
+	 */
+	public static FastaWriter open(Path path) throws IOException {
+		if (path.getFileName().toString().endsWith(".gz")) {
+			return new FastaWriter(Channels.newChannel(new GZIPOutputStream(Files.newOutputStream(path), 1 << 16)));
+		}
+		return new FastaWriter(FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING));
+	}
+
+	/**
+	 * Write a sequence: its header line, then its bases
+	 * @param id the id of the sequence in the header
+	 * @param seq the sequence
+	 * @throws IOException
+	 */
+	public void write(String id, Sequence seq) throws IOException {
+		PackedSequence packed = seq.getPacked();
+		int length = seq.getLength();
+		put(">");
+		put(id);
+		put(" length=");
+		put(Integer.toString(length));
+		if (seq instanceof Contig contig) {
+			put(" reads=");
+			put(Integer.toString(contig.getReadsCount()));
+		}
+		put("\n");
+		for (int i = 0; i < length; i += LINE_LENGTH) {
+			int n = Math.min(LINE_LENGTH, length - i);
+			if (buffer.remaining() < n + 1) {
+				drain();
+			}
+			packed.getBytes(i, i + n, buffer.array(), buffer.position());
+			buffer.position(buffer.position() + n);
+			buffer.put((byte) '\n');
+		}
+	}
+
+	/**
+	 * Write the buffered bytes to the channel
+	 * @throws IOException
+	 */
+	public void flush() throws IOException {
+		drain();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			drain();
+		} finally {
+			channel.close();
+		}
+	}
+
+	private void put(CharSequence s) throws IOException {
+		for (int i = 0; i < s.length(); i++) {
+			if (!buffer.hasRemaining()) {
+				drain();
+			}
+			buffer.put((byte) s.charAt(i));
+		}
+	}
+
+	private void drain() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+}
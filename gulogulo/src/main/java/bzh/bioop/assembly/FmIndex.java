@@ -0,0 +1,343 @@
+package bzh.bioop.assembly;
+
+import java.util.Arrays;
+
+/**
+ * FM-index of the reads of a pool, to find the reads whose prefix is
+ * exactly a suffix of a contig.
+ *
+ * The text is $r0$r1...$rn-1$. Its suffix array is built once by prefix
+ * doubling, then only the BWT is kept, packed on 2 bits per base with a
+ * bitset for the $, and the ranks are sampled every 64 rows. The suffix
+ * array itself is only sampled at the starts of the reads: these are the
+ * only positions reported by a query, so the read of a hit is found from
+ * its row without walking the BWT.
+ *
+ * The suffix of a contig is searched backward from its last base: after o
+ * bases the range of rows gives the occurrences of the last o bases, and
+ * the rows of $ followed by them are the reads starting with them. A query
+ * costs O(L + hits).
+ *
+ * A read with a base other than A, C, G or T is indexed by its prefix
+ * before this base: a contig suffix without such a base can only overlap
+ * this prefix. These reads are listed by getTruncated, to be compared with
+ * the contig when its end has such a base.
+ */
+public class FmIndex {
+
+	private static final int DOLLAR = 4; // column of $ in the occ table
+
+	private final ReadPool pool;
+	private final int textLength;
+	private final long[] bwt; // 2 bits per base, $ is stored as A
+	private final long[] dollars; // bit i is set if BWT[i] is $
+	private final int[] occ; // occurrences of A, C, G, T and $ before each block of 64 rows
+	private final int[] first; // first row of the suffixes starting with A, C, G and T
+	private final int[] readOfRow; // read following the $ of each row of the $ block, -1 for the last $
+	private final int[] truncated; // reads with a non ACGT base, indexed by their prefix before it
+	private final int maxReadLength;
+
+	/**
+	 * Build the index of the reads of a pool
+	 * @param pool the reads to index
+	 */
+	public FmIndex(ReadPool pool) {
+		this.pool = pool;
+		int n = pool.size();
+		long length = 1; // the final $
+		int nbIndexed = 0;
+		int nbTruncated = 0;
+		int maxLength = 0;
+		for (int id = 0; id < n; id++) {
+			PackedSequence seq = pool.get(id).getPacked();
+			maxLength = Math.max(maxLength, seq.length());
+			int indexed = indexedLength(seq);
+			if (indexed < seq.length()) {
+				nbTruncated++;
+			}
+			if (indexed > 0) {
+				length += indexed + 1;
+				nbIndexed++;
+			}
+		}
+		if (length > Integer.MAX_VALUE - 64) {
+			throw new IllegalArgumentException("too many bases for the FM-index: " + length);
+		}
+		maxReadLength = maxLength;
+		textLength = (int) length;
+
+		// the text, one symbol per byte: $ 0, A 1, C 2, G 3, T 4
+		byte[] text = new byte[textLength];
+		int[] starts = new int[nbIndexed + 1]; // positions of the $, in increasing order
+		int[] readAt = new int[nbIndexed + 1]; // read following each $
+		truncated = new int[nbTruncated];
+		int pos = 0;
+		int nbReads = 0;
+		int t = 0;
+		for (int id = 0; id < n; id++) {
+			PackedSequence seq = pool.get(id).getPacked();
+			int indexed = indexedLength(seq);
+			if (indexed < seq.length()) {
+				truncated[t++] = id;
+			}
+			if (indexed == 0) {
+				continue; // no $$ in the text
+			}
+			starts[nbReads] = pos;
+			readAt[nbReads++] = id;
+			text[pos++] = 0;
+			for (int i = 0; i < indexed; i++) {
+				text[pos++] = (byte) (seq.code(i) + 1);
+			}
+		}
+		starts[nbReads] = pos; // final $
+		readAt[nbReads] = -1;
+
+		int[] sa = suffixArray(text);
+
+		// BWT with its rank samples, and the reads of the rows of the $ block
+		int nbBlocks = (textLength + 63) >>> 6;
+		bwt = new long[2 * nbBlocks];
+		dollars = new long[nbBlocks];
+		occ = new int[5 * (nbBlocks + 1)];
+		int[] counts = new int[5];
+		for (int row = 0; row < textLength; row++) {
+			if ((row & 63) == 0) {
+				System.arraycopy(counts, 0, occ, 5 * (row >>> 6), 5);
+			}
+			int p = sa[row];
+			int c = text[p == 0 ? textLength - 1 : p - 1];
+			if (c == 0) {
+				dollars[row >>> 6] |= 1L << row;
+				counts[DOLLAR]++;
+			} else {
+				bwt[row >>> 5] |= (long) (c - 1) << ((row & 31) << 1);
+				counts[c - 1]++;
+			}
+		}
+		System.arraycopy(counts, 0, occ, 5 * nbBlocks, 5);
+		first = new int[4];
+		first[0] = counts[DOLLAR];
+		for (int c = 1; c < 4; c++) {
+			first[c] = first[c - 1] + counts[c - 1];
+		}
+		readOfRow = new int[nbReads + 1];
+		for (int row = 0; row <= nbReads; row++) {
+			readOfRow[row] = readAt[Arrays.binarySearch(starts, sa[row])];
+		}
+	}
+
+	/**
+	 * Length of the prefix of a read before its first base other than A, C, G or T
+	 */
+	private static int indexedLength(PackedSequence seq) {
+		for (int i = 0; i < seq.length(); i += 32) {
+			int n = Math.min(32, seq.length() - i);
+			if (seq.hasException(i, i + n)) {
+				int j = i;
+				while (!seq.isException(j)) {
+					j++;
+				}
+				return j;
+			}
+		}
+		return seq.length();
+	}
+
+	/**
+	 * Suffix array by prefix doubling: the suffixes are first sorted by their
+	 * first 8 symbols with a counting sort, then the suffixes sorted by their
+	 * first h symbols are sorted by their first 2h symbols with two counting
+	 * sorts
+	 * @param text the symbols, between 0 and 4
+	 * @return the positions of the suffixes in increasing order
+	 */
+	static int[] suffixArray(byte[] text) {
+		int n = text.length;
+		int[] sa = new int[n];
+		int[] rank = new int[n];
+		int[] tmp = new int[n];
+
+		// first 8 symbols in base 6, 0 being the end of the text
+		final int q = 8;
+		int buckets = 1;
+		for (int j = 0; j < q; j++) {
+			buckets *= 6;
+		}
+		int[] count = new int[Math.max(n, buckets) + 1];
+		int key = 0;
+		for (int i = 0; i < q; i++) {
+			key = key * 6 + (i < n ? text[i] + 1 : 0);
+		}
+		for (int i = 0; i < n; i++) {
+			tmp[i] = key;
+			count[key + 1]++;
+			key = (key % (buckets / 6)) * 6 + (i + q < n ? text[i + q] + 1 : 0);
+		}
+		for (int c = 1; c <= buckets; c++) {
+			count[c] += count[c - 1];
+		}
+		for (int i = 0; i < n; i++) {
+			sa[count[tmp[i]]++] = i;
+		}
+		int maxRank = 0;
+		rank[sa[0]] = 0;
+		for (int j = 1; j < n; j++) {
+			if (tmp[sa[j]] != tmp[sa[j - 1]]) {
+				maxRank++;
+			}
+			rank[sa[j]] = maxRank;
+		}
+
+		for (int h = q; maxRank < n - 1; h <<= 1) {
+			// order by the second half: the suffixes shorter than h first, then in the order of sa
+			int k = 0;
+			for (int i = Math.max(0, n - h); i < n; i++) {
+				tmp[k++] = i;
+			}
+			for (int j = 0; j < n; j++) {
+				if (sa[j] >= h) {
+					tmp[k++] = sa[j] - h;
+				}
+			}
+			// stable counting sort by the first half
+			Arrays.fill(count, 0, maxRank + 2, 0);
+			for (int i = 0; i < n; i++) {
+				count[rank[i] + 1]++;
+			}
+			for (int c = 1; c <= maxRank + 1; c++) {
+				count[c] += count[c - 1];
+			}
+			for (int j = 0; j < n; j++) {
+				int i = tmp[j];
+				sa[count[rank[i]]++] = i;
+			}
+			// ranks of the suffixes sorted by their first 2h symbols
+			tmp[sa[0]] = 0;
+			int r = 0;
+			for (int j = 1; j < n; j++) {
+				int a = sa[j - 1];
+				int b = sa[j];
+				if (rank[a] != rank[b] || (a + h < n ? rank[a + h] : -1) != (b + h < n ? rank[b + h] : -1)) {
+					r++;
+				}
+				tmp[b] = r;
+			}
+			int[] swap = rank;
+			rank = tmp;
+			tmp = swap;
+			maxRank = r;
+		}
+		return sa;
+	}
+
+	// --- Queries ---
+
+	/**
+	 * Find the indexed reads whose prefix is a suffix of the first length
+	 * bases of a sequence, like a contig
+	 * @param seq the sequence
+	 * @param length the length of the sequence to consider
+	 * @param minOverlap the minimum length of the overlaps
+	 * @return the hits encoded as (overlap << 32 | MAX_VALUE - id),
+	 * from the longest overlap to the shortest, then by increasing id
+	 */
+	public long[] overlaps(PackedSequence seq, int length, int minOverlap) {
+		long[] hits = new long[16];
+		int nbHits = 0;
+		int lo = 0;
+		int hi = textLength;
+		for (int o = 1; o <= Math.min(length, maxReadLength); o++) {
+			int c = seq.code(length - o);
+			if (c < 0) {
+				break; // not in the indexed reads
+			}
+			lo = first[c] + rank(c, lo);
+			hi = first[c] + rank(c, hi);
+			if (lo >= hi) {
+				break;
+			}
+			if (o >= minOverlap) {
+				// the $ before the last o bases are the starts of the reads
+				for (int row = rankDollar(lo); row < rankDollar(hi); row++) {
+					if (nbHits == hits.length) {
+						hits = Arrays.copyOf(hits, 2 * nbHits);
+					}
+					hits[nbHits++] = (long) o << 32 | (Integer.MAX_VALUE - readOfRow[row]);
+				}
+			}
+		}
+		Arrays.sort(hits, 0, nbHits);
+		for (int i = 0, j = nbHits - 1; i < j; i++, j--) {
+			long swap = hits[i];
+			hits[i] = hits[j];
+			hits[j] = swap;
+		}
+		return Arrays.copyOf(hits, nbHits);
+	}
+
+	/**
+	 * Number of c in the rows [0..i) of the BWT
+	 */
+	private int rank(int c, int i) {
+		int b = i >>> 6;
+		int r = i & 63;
+		int n = occ[5 * b + c];
+		if (r == 0) {
+			return n;
+		}
+		long pattern = c * 0x5555555555555555L;
+		n += countEqual(bwt[2 * b] ^ pattern, Math.min(r, 32));
+		if (r > 32) {
+			n += countEqual(bwt[2 * b + 1] ^ pattern, r - 32);
+		}
+		if (c == 0) {
+			n -= Long.bitCount(dollars[b] & ((1L << r) - 1)); // the $ are stored as A
+		}
+		return n;
+	}
+
+	/**
+	 * Number of $ in the rows [0..i) of the BWT, which is also the row of
+	 * the first suffix starting with the $ of row i
+	 */
+	private int rankDollar(int i) {
+		int b = i >>> 6;
+		int r = i & 63;
+		if (r == 0) {
+			return occ[5 * b + DOLLAR];
+		}
+		return occ[5 * b + DOLLAR] + Long.bitCount(dollars[b] & ((1L << r) - 1));
+	}
+
+	/**
+	 * Number of zero 2 bits lanes among the first lanes of x
+	 */
+	private static int countEqual(long x, int lanes) {
+		long eq = ~(x | (x >>> 1)) & 0x5555555555555555L;
+		if (lanes < 32) {
+			eq &= (1L << (2 * lanes)) - 1;
+		}
+		return Long.bitCount(eq);
+	}
+
+	// --- Getters ---
+
+	public ReadPool getPool() {
+		return pool;
+	}
+
+	/**
+	 * Accessor for the reads indexed by a prefix only, because of a base
+	 * other than A, C, G or T. They must be compared with a contig that has
+	 * such a base in its last getMaxReadLength bases.
+	 * @return the ids of the reads
+	 */
+	int[] getTruncated() {
+		return truncated;
+	}
+
+	public int getMaxReadLength() {
+		return maxReadLength;
+	}
+}
@@ -0,0 +1,201 @@
+package bzh.bioop.assembly;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Greedy assembly in a single contig.
+ *
+ * The contig starts with the first read of the pool, then the live read
+ * with the largest overlap (at least 8 bases) is merged into it until no
+ * read overlaps. The read of each step is found with the FM-index of the
+ * reads, with the alignments cached between the steps by an OverlapCache,
+ * or with the seeds of the KmerIndex, scanning the pool in parallel when
+ * the seeds cannot find all the overlaps. The state of the loop can be
+ * saved periodically, and the loop resumed from it.
+ */
+public class GreedyAssembler {
+
+	private final KmerIndex index;
+	private final ReadPool pool;
+	private final float perror;
+
+	private ForkJoinPool executor; // scores the reads in parallel, null to score them in this thread
+	private boolean bothStrands;
+	private boolean fmIndex;
+	private boolean verbose;
+	private CheckpointWriter checkpoints; // null for no checkpoint
+	private Checkpoint resume; // state to start from, null to start from the first read
+	private AssemblyMetrics metrics = AssemblyMetrics.get();
+
+	/**
+	 * Create the assembler of the reads of an index
+	 * @param index the index of the reads to assemble
+	 * @param perror pourcentage of errors accepted in the overlaps
+	 */
+	public GreedyAssembler(KmerIndex index, float perror) {
+		this.index = index;
+		this.pool = index.getPool();
+		this.perror = perror;
+	}
+
+	/**
+	 * Run the greedy loop, the reads merged in the contig are consumed in
+	 * the pool
+	 * @return the contig
+	 */
+	@SuppressWarnings("try") // the phases are only opened and closed
+	public Contig assemble() {
+		if (pool.size() == 0) {
+			throw new IllegalArgumentException("no read to assemble");
+		}
+		Contig contig;
+		if (resume != null) {
+			if (!resume.options().equals(getOptions())) {
+				throw new IllegalArgumentException("checkpoint of a run with " + resume.options()
+						+ ", not " + getOptions());
+			}
+			contig = resume.restore(pool);
+		} else {
+			contig = new Contig(pool.get(0));
+			pool.consume(0);
+		}
+		contig.setMetrics(metrics);
+
+		if (bothStrands) {
+			// The reverse complement reads share their ids and live reads with the pool
+			ReadPool reversePool = pool.reverseComplement();
+			KmerIndex reverseIndex;
+			try (AssemblyMetrics.Phase phase = metrics.phase("index")) {
+				reverseIndex = new KmerIndex(reversePool);
+			}
+			try (AssemblyMetrics.Phase phase = metrics.phase("assembly")) {
+				boolean flipped = resume != null && resume.flipped();
+				while (true) {
+					Contig.Extension next = contig.nextExtension(index, reverseIndex, perror, executor);
+					if (next == null) {
+						if (flipped) {
+							break; // both ends are done
+						}
+						// the left end is extended as the right end of the reverse complement
+						contig.reverseComplement();
+						flipped = true;
+						continue;
+					}
+					pool.consume(next.id());
+					if (verbose) {
+						System.out.println("Fusion with " + next.id() + (next.reverse() ? " (reverse)" : "")
+								+ ", still " + pool.getLiveCount() + " reads to assemble... work in process");
+					}
+					Read r = next.reverse() ? reversePool.get(next.id()) : pool.get(next.id());
+					contig.fusion(r, next.overlap());
+					metrics.progress(pool.getLiveCount());
+					if (checkpoints != null && checkpoints.isDue()) {
+						checkpoints.save(Checkpoint.of(contig, pool, flipped, getOptions()));
+					}
+				}
+				contig.reverseComplement(); // back on the strand of the first read
+			}
+			return contig;
+		}
+
+		// Exact overlaps can be found with the FM-index of the reads
+		FmIndex fm = null;
+		if (fmIndex && perror == 0) {
+			try (AssemblyMetrics.Phase phase = metrics.phase("index")) {
+				fm = new FmIndex(pool);
+			}
+		}
+
+		// Otherwise the alignments of the reads are updated with the new bases of the contig only
+		OverlapCache cache = fm == null && executor == null && index.isLossless(perror, 8)
+				? new OverlapCache(contig, index, perror) : null;
+
+		try (AssemblyMetrics.Phase phase = metrics.phase("assembly")) {
+			while (true) { // loop while still reads with overlap > 8 to assemble
+				// find the id of the read with best overlap
+				int next = fm != null ? contig.nextRead(fm)
+						: cache != null ? cache.nextRead()
+						: executor == null ? contig.nextReadWithError(index, perror)
+						: contig.nextReadWithError(index, perror, executor);
+				if (next == -1) {
+					break; // if no read whre overlap > 8
+				}
+				// the best read is consumed, it will not be proposed again
+				pool.consume(next);
+				if (verbose) {
+					System.out.println("Fusion with " + next + ", still " + pool.getLiveCount()
+							+ " reads to assemble... work in process");
+				}
+				// fusion the contig (first line) with the chosen read
+				contig = contig.fusion(pool.get(next));
+				metrics.progress(pool.getLiveCount());
+				if (checkpoints != null && checkpoints.isDue()) {
+					checkpoints.save(Checkpoint.of(contig, pool, false, getOptions()));
+				}
+			}
+		}
+		return contig;
+	}
+
+	// --- Options ---
+
+	/**
+	 * Score the reads on a pool of threads when they all have to be scanned
+	 * @param executor the threads, null to score the reads in the calling thread
+	 */
+	public void setExecutor(ForkJoinPool executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Also merge the reverse complement reads, and extend the contig to the left
+	 */
+	public void setBothStrands(boolean bothStrands) {
+		this.bothStrands = bothStrands;
+	}
+
+	/**
+	 * Find the exact overlaps with an FM-index of the reads, ignored with
+	 * errors or on both strands
+	 */
+	public void setFmIndex(boolean fmIndex) {
+		this.fmIndex = fmIndex;
+	}
+
+	/**
+	 * Save the state of the loop periodically
+	 * @param checkpoints the writer of the checkpoints, null for no checkpoint
+	 */
+	public void setCheckpoints(CheckpointWriter checkpoints) {
+		this.checkpoints = checkpoints;
+	}
+
+	/**
+	 * Start from a checkpoint instead of the first read
+	 * @param resume the checkpoint of the same reads and options, null to start from the first read
+	 */
+	public void setResume(Checkpoint resume) {
+		this.resume = resume;
+	}
+
+	/**
+	 * The options of the loop, recorded in its checkpoints
+	 */
+	public Checkpoint.Options getOptions() {
+		return new Checkpoint.Options(perror, bothStrands, fmIndex);
+	}
+
+	/**
+	 * Set the metrics of the assembly, AssemblyMetrics.get() by default
+	 */
+	public void setMetrics(AssemblyMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Print each fusion on the standard output
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+}
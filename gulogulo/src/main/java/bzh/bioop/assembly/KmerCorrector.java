@@ -0,0 +1,214 @@
+package bzh.bioop.assembly;
+
+/**
+ * Correction of the sequencing errors of the reads before the assembly,
+ * with the k-mer spectrum of the reads.
+ *
+ * The k-mers of all the reads are counted once. A k-mer seen at least
+ * minCount times is trusted (solid); in a read, the first weak k-mer next
+ * to a solid one usually starts or ends with an error, which is replaced by
+ * the only base that makes this k-mer, and the most k-mers covering it,
+ * solid. The corrected reads can then be assembled with exact overlaps: the
+ * errors are handled in one linear pass instead of in every overlap test of
+ * the greedy loop.
+ */
+public class KmerCorrector {
+
+	private static final String NUCLEOTIDES = "ACGT";
+
+	private final int k;
+	private final int minCount;
+	private final int maxCorrections; // per read, a read with more errors is kept as is
+
+	private LongIntHashMap counts;
+	private int correctedReads;
+	private int correctedBases;
+
+	/**
+	 * Create a corrector
+	 * @param k the length of the k-mers, between 1 and 31
+	 * @param minCount the minimum number of occurrences of a trusted k-mer
+	 * @param maxCorrections the maximum number of bases corrected in a read
+	 */
+	public KmerCorrector(int k, int minCount, int maxCorrections) {
+		this.k = k;
+		this.minCount = minCount;
+		this.maxCorrections = maxCorrections;
+	}
+
+	/**
+	 * Correct all the reads of a pool
+	 * @param pool the reads to correct
+	 * @return a new pool with the corrected reads, with the same ids
+	 */
+	public ReadPool correct(ReadPool pool) {
+		counts = KmerCounter.count(pool, k);
+		ReadPool corrected = new ReadPool();
+		for (int id = 0; id < pool.size(); id++) {
+			corrected.add(correct(pool.get(id)));
+		}
+		counts = null; // the table is not needed by the assembly
+		return corrected;
+	}
+
+	/**
+	 * Correct one read
+	 * @return the corrected read, r itself if nothing is corrected
+	 */
+	private Read correct(Read r) {
+		if (r.getLength() < k) {
+			return r;
+		}
+		char[] s = null;
+		int nbCorrections = 0;
+		int weak;
+		while ((weak = firstWeak(r, s)) >= 0 && nbCorrections < maxCorrections) {
+			if (s == null) {
+				s = r.getSeq().toCharArray();
+			}
+			// the first weak k-mer after a solid one ends with the error, else the error
+			// is just before the first solid k-mer
+			int j;
+			int anchor; // k-mer next to the trusted part of the read, it must become solid
+			if (weak > 0) {
+				j = weak + k - 1;
+				anchor = weak;
+			} else {
+				int solid = firstSolid(s);
+				if (solid <= 0) {
+					break; // no trusted k-mer in the read
+				}
+				j = solid - 1;
+				anchor = j;
+			}
+			if (!fix(s, j, anchor)) {
+				break; // no unique correction
+			}
+			nbCorrections++;
+		}
+		if (nbCorrections == 0) {
+			return r;
+		}
+		correctedReads++;
+		correctedBases += nbCorrections;
+		return new Read(new PackedSequence(new String(s)));
+	}
+
+	/**
+	 * Replace the base j by the base that makes the anchor k-mer solid and
+	 * the most k-mers covering j solid. Another error closer than k bases
+	 * can keep some of these k-mers weak, it is corrected afterwards.
+	 * @return true if such a base exists and is unique
+	 */
+	private boolean fix(char[] s, int j, int anchor) {
+		char original = s[j];
+		char found = 0;
+		int bestScore = 0;
+		boolean tie = false;
+		for (int b = 0; b < 4; b++) {
+			char c = NUCLEOTIDES.charAt(b);
+			if (c == original) {
+				continue;
+			}
+			s[j] = c;
+			if (!isSolid(kmer(s, anchor))) {
+				continue;
+			}
+			int score = solidCovering(s, j);
+			if (score > bestScore) {
+				bestScore = score;
+				found = c;
+				tie = false;
+			} else if (score == bestScore) {
+				tie = true;
+			}
+		}
+		if (found == 0 || tie) {
+			s[j] = original;
+			return false;
+		}
+		s[j] = found;
+		return true;
+	}
+
+	/**
+	 * Number of solid k-mers covering the base j
+	 */
+	private int solidCovering(char[] s, int j) {
+		int n = 0;
+		for (int i = Math.max(0, j - k + 1); i <= j && i + k <= s.length; i++) {
+			if (isSolid(kmer(s, i))) {
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Position of the first weak k-mer of the read, from the packed read
+	 * while nothing is corrected
+	 * @return the position, -1 if all the k-mers are solid
+	 */
+	private int firstWeak(Read r, char[] s) {
+		if (s != null) {
+			for (int i = 0; i + k <= s.length; i++) {
+				if (!isSolid(kmer(s, i))) {
+					return i;
+				}
+			}
+			return -1;
+		}
+		PackedSequence seq = r.getPacked();
+		long mask = KmerCounter.mask(k);
+		long kmer = 0;
+		int valid = 0;
+		for (int i = 0; i < seq.length(); i++) {
+			int c = seq.code(i);
+			valid = c < 0 ? 0 : valid + 1;
+			kmer = ((kmer << 2) | Math.max(c, 0)) & mask;
+			if (i >= k - 1 && (valid < k || !isSolid(kmer))) {
+				return i - k + 1;
+			}
+		}
+		return -1;
+	}
+
+	private int firstSolid(char[] s) {
+		for (int i = 0; i + k <= s.length; i++) {
+			if (isSolid(kmer(s, i))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean isSolid(long kmer) {
+		return kmer >= 0 && counts.get(kmer) >= minCount;
+	}
+
+	/**
+	 * Encode the k-mer starting at i
+	 * @return the k-mer, -1 if it contains a base other than A, C, G or T
+	 */
+	private long kmer(char[] s, int i) {
+		long kmer = 0;
+		for (int j = i; j < i + k; j++) {
+			int c = PackedSequence.encode(s[j]);
+			if (c < 0) {
+				return -1;
+			}
+			kmer = (kmer << 2) | c;
+		}
+		return kmer;
+	}
+
+	// --- Getters ---
+
+	public int getCorrectedReads() {
+		return correctedReads;
+	}
+
+	public int getCorrectedBases() {
+		return correctedBases;
+	}
+}
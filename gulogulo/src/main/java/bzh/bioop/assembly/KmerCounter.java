@@ -0,0 +1,57 @@
+package bzh.bioop.assembly;
+
+/**
+ * Counting of the k-mers of a set of reads, shared by the De Bruijn
+ * assembler and the read correction.
+ *
+ * A k-mer (k <= 31) is encoded on 2 bits per base in a long, the first base
+ * in the highest bits. K-mers with a base other than A, C, G or T are not
+ * counted.
+ */
+public final class KmerCounter {
+
+	private KmerCounter() {
+	}
+
+	/**
+	 * Count the k-mers of all the reads of a pool, consumed or not
+	 * @param pool the reads
+	 * @param k the length of the k-mers, between 1 and 31
+	 * @return the number of occurrences of each k-mer
+	 */
+	public static LongIntHashMap count(ReadPool pool, int k) {
+		if (k < 1 || k > 31) {
+			throw new IllegalArgumentException("k must be between 1 and 31: " + k);
+		}
+		long total = 0;
+		for (int id = 0; id < pool.size(); id++) {
+			total += Math.max(0, pool.get(id).getLength() - k + 1);
+		}
+		long mask = mask(k);
+		LongIntHashMap counts = new LongIntHashMap((int) Math.min(total, 1 << 22)); // grows if needed
+		for (int id = 0; id < pool.size(); id++) {
+			PackedSequence seq = pool.get(id).getPacked();
+			long kmer = 0;
+			int valid = 0; // number of ACGT bases at the end of the k-mer
+			for (int i = 0; i < seq.length(); i++) {
+				int c = seq.code(i);
+				if (c < 0) {
+					valid = 0;
+					continue;
+				}
+				kmer = ((kmer << 2) | c) & mask;
+				if (++valid >= k) {
+					counts.increment(kmer);
+				}
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Mask of the 2k bits of a k-mer
+	 */
+	public static long mask(int k) {
+		return (1L << (2 * k)) - 1;
+	}
+}
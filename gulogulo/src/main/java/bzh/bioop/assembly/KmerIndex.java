@@ -0,0 +1,216 @@
+package bzh.bioop.assembly;
+
+import java.util.Arrays;
+
+/**
+ * Index of the seeds of a set of reads, used to find the reads that may
+ * overlap the end of a contig without comparing the contig with every read.
+ *
+ * The seeds of a read are its k-mers taken every k bases from its start
+ * (positions 0, k, 2k...), with k = K by default. The index is built once
+ * over the reads of a pool; the reads consumed in the pool are skipped by
+ * the search. Shorter seeds find the overlaps with more errors, at the
+ * cost of more candidates (see seedLength).
+ *
+ * A seed with a base other than A, C, G or T is not indexed, the other
+ * seeds of its read are. Such a seed mismatches any sequence without this
+ * base, so the index only misses these reads where the contig has one too:
+ * they are listed by getUnseedable.
+ */
+public class KmerIndex {
+
+	/**
+	 * Length of a seed, must not be greater than the minimum overlap
+	 */
+	public static final int K = 8;
+
+	private final ReadPool pool;
+	private final int k;
+	private final int[] offsets; // entries of k-mer x are in [offsets[x], offsets[x+1])
+	private final int[] entryRead; // read id of each entry
+	private final int[] entrySeed; // position of the seed in the read
+	private final int[] unseedable; // reads with a non ACGT seed, scanned when the contig has such a base
+	private final int maxReadLength;
+
+	private float lastPerror = Float.NaN; // cache for isLossless
+	private boolean lastLossless;
+
+	/**
+	 * Build the index of the reads of a pool
+	 * @param pool the reads to index
+	 */
+	public KmerIndex(ReadPool pool) {
+		this(pool, K);
+	}
+
+	/**
+	 * Build the index of the reads of a pool with seeds of k bases
+	 * @param pool the reads to index
+	 * @param k the length of the seeds, between 1 and K
+	 */
+	public KmerIndex(ReadPool pool, int k) {
+		if (k < 1 || k > K) {
+			throw new IllegalArgumentException("seed length not in [1, " + K + "]: " + k);
+		}
+		int n = pool.size();
+		this.pool = pool;
+		this.k = k;
+		offsets = new int[(1 << (2 * k)) + 1];
+
+		// First pass: count the entries of each k-mer and find the unseedable reads
+		boolean[] seedable = new boolean[n];
+		int nbUnseedable = 0;
+		int maxLength = 0;
+		for (int id = 0; id < n; id++) {
+			PackedSequence seq = pool.get(id).getPacked();
+			maxLength = Math.max(maxLength, seq.length());
+			seedable[id] = true;
+			for (int s = 0; s + k <= seq.length(); s += k) {
+				if (kmer(seq, s, k) < 0) {
+					seedable[id] = false;
+					break;
+				}
+			}
+			if (!seedable[id]) {
+				nbUnseedable++;
+			}
+			for (int s = 0; s + k <= seq.length(); s += k) {
+				int kmer = kmer(seq, s, k);
+				if (kmer >= 0) {
+					offsets[kmer + 1]++;
+				}
+			}
+		}
+		maxReadLength = maxLength;
+		for (int x = 1; x < offsets.length; x++) {
+			offsets[x] += offsets[x - 1];
+		}
+
+		// Second pass: fill the entries, reads stay in id order inside a k-mer
+		int total = offsets[offsets.length - 1];
+		entryRead = new int[total];
+		entrySeed = new int[total];
+		int[] fill = Arrays.copyOf(offsets, offsets.length - 1);
+		unseedable = new int[nbUnseedable];
+		int u = 0;
+		for (int id = 0; id < n; id++) {
+			if (!seedable[id]) {
+				unseedable[u++] = id;
+			}
+			PackedSequence seq = pool.get(id).getPacked();
+			for (int s = 0; s + k <= seq.length(); s += k) {
+				int kmer = kmer(seq, s, k);
+				if (kmer < 0) {
+					continue;
+				}
+				int e = fill[kmer]++;
+				entryRead[e] = id;
+				entrySeed[e] = s;
+			}
+		}
+	}
+
+	/**
+	 * Encode the k-mer of the seeds of the index starting at position pos,
+	 * with the 2 bits codes of the packed sequence
+	 * @param s the sequence
+	 * @param pos start of the k-mer
+	 * @return the k-mer code, or -1 if it contains a non ACGT character
+	 */
+	int kmer(PackedSequence s, int pos) {
+		return kmer(s, pos, k);
+	}
+
+	private static int kmer(PackedSequence s, int pos, int k) {
+		if (s.hasException(pos, pos + k)) {
+			return -1;
+		}
+		return (int) (s.word(pos) & ((1L << (2 * k)) - 1));
+	}
+
+	/**
+	 * Check if the seeds can find every overlap of at least minOverlap bases
+	 * accepted with perror pourcentage of errors
+	 * @param perror pourcentage of errors accepted
+	 * @param minOverlap the minimum overlap length
+	 * @return true if no overlap can be missed by the index
+	 */
+	public boolean isLossless(float perror, int minOverlap) {
+		if (perror == lastPerror) {
+			return lastLossless;
+		}
+		lastLossless = isLossless(perror, minOverlap, maxReadLength, k);
+		lastPerror = perror;
+		return lastLossless;
+	}
+
+	/**
+	 * Longest seeds that find every overlap of at least minOverlap bases
+	 * accepted with perror pourcentage of errors
+	 * @param maxReadLength the length of the longest read
+	 * @return the seed length, at most K, 0 if even 1 base seeds miss overlaps
+	 */
+	public static int seedLength(float perror, int minOverlap, int maxReadLength) {
+		for (int k = K; k >= 1; k--) {
+			if (isLossless(perror, minOverlap, maxReadLength, k)) {
+				return k;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * The q-gram lemma for seeds of k bases every k bases: an overlap of
+	 * length o contains o/k seeds, so one of them is exact as long as there
+	 * are less errors than seeds.
+	 */
+	private static boolean isLossless(float perror, int minOverlap, int maxReadLength, int k) {
+		for (int o = Math.max(minOverlap, k); o <= maxReadLength; o++) {
+			int maxErrors = (int) Math.min(o, Math.floor(perror * o) + 1);
+			while (maxErrors > 0 && (float) maxErrors / o > perror) {
+				maxErrors--;
+			}
+			if (maxErrors >= o / k) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// --- Accessors used by the overlap search ---
+
+	/**
+	 * Getter for the length of the seeds
+	 */
+	public int getK() {
+		return k;
+	}
+
+	public int getMaxReadLength() {
+		return maxReadLength;
+	}
+
+	public ReadPool getPool() {
+		return pool;
+	}
+
+	int firstEntry(int kmer) {
+		return offsets[kmer];
+	}
+
+	int endEntry(int kmer) {
+		return offsets[kmer + 1];
+	}
+
+	int entryRead(int e) {
+		return entryRead[e];
+	}
+
+	int entrySeed(int e) {
+		return entrySeed[e];
+	}
+
+	int[] getUnseedable() {
+		return unseedable;
+	}
+}
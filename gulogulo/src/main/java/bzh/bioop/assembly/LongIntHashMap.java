@@ -0,0 +1,176 @@
+package bzh.bioop.assembly;
+
+import java.util.Arrays;
+
+/**
+ * Hash table from long keys to int values, with open addressing and linear
+ * probing in two primitive arrays: 12 bytes per slot, no boxing.
+ *
+ * Keys must not be negative (-1 marks a free slot), which is the case of
+ * 2-bit encoded k-mers with k <= 31. The table has at most MAX_CAPACITY
+ * slots: adding a key past MAX_LOAD of them throws IllegalStateException.
+ */
+public class LongIntHashMap {
+
+	private static final long FREE = -1L;
+	private static final float MAX_LOAD = 0.8f;
+	static final int MAX_CAPACITY = 1 << 30; // largest power of two size of an array
+
+	private long[] keys;
+	private int[] values;
+	private int size;
+	private int mask;
+
+	/**
+	 * Create a table that holds expectedSize keys without growing
+	 * @param expectedSize the number of keys expected
+	 */
+	public LongIntHashMap(int expectedSize) {
+		long wanted = Math.max(16, (long) Math.ceil(expectedSize / (double) MAX_LOAD));
+		allocate((int) Math.min(MAX_CAPACITY, Long.highestOneBit(wanted - 1) << 1));
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		Arrays.fill(keys, FREE);
+		values = new int[capacity];
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	private int home(long key) {
+		long h = key * 0x9E3779B97F4A7C15L; // Fibonacci hashing
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private int slot(long key) {
+		int i = home(key);
+		while (keys[i] != FREE && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	/**
+	 * Accessor for the value of a key
+	 * @param key the key
+	 * @return the value of the key, 0 if the key is absent
+	 */
+	public int get(long key) {
+		int i = slot(key);
+		return keys[i] == FREE ? 0 : values[i];
+	}
+
+	/**
+	 * Check if a key is in the table
+	 */
+	public boolean containsKey(long key) {
+		return keys[slot(key)] != FREE;
+	}
+
+	/**
+	 * Set the value of a key, adding the key if needed
+	 */
+	public void put(long key, int value) {
+		int i = slot(key);
+		if (keys[i] == FREE) {
+			i = insert(key);
+		}
+		values[i] = value;
+	}
+
+	/**
+	 * Add one to the value of a key, adding the key with 1 if needed
+	 * @return the new value
+	 */
+	public int increment(long key) {
+		int i = slot(key);
+		if (keys[i] == FREE) {
+			i = insert(key);
+		}
+		return ++values[i];
+	}
+
+	/**
+	 * Remove a key, the keys after it in its cluster are shifted back so
+	 * that no tombstone is left
+	 */
+	public void remove(long key) {
+		int hole = slot(key);
+		if (keys[hole] == FREE) {
+			return;
+		}
+		int j = hole;
+		while (true) {
+			j = (j + 1) & mask;
+			if (keys[j] == FREE) {
+				break;
+			}
+			// keys[j] can fill the hole if its home slot is not between the hole and j
+			if (((j - home(keys[j])) & mask) >= ((j - hole) & mask)) {
+				keys[hole] = keys[j];
+				values[hole] = values[j];
+				hole = j;
+			}
+		}
+		keys[hole] = FREE;
+		size--;
+	}
+
+	/**
+	 * Remove all the keys, the capacity is kept
+	 */
+	public void clear() {
+		Arrays.fill(keys, FREE);
+		size = 0;
+	}
+
+	private int insert(long key) {
+		if (size + 1 > MAX_LOAD * keys.length) {
+			if (keys.length == MAX_CAPACITY) {
+				throw new IllegalStateException("hash table full: " + size + " keys in " + MAX_CAPACITY + " slots");
+			}
+			grow();
+		}
+		int i = slot(key);
+		keys[i] = key;
+		size++;
+		return i;
+	}
+
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != FREE) {
+				int j = slot(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				values[j] = oldValues[i];
+				size++;
+			}
+		}
+	}
+
+	// --- Iteration on the slots: for (int i = 0; i < capacity(); i++) if (isUsed(i)) ... ---
+
+	public int capacity() {
+		return keys.length;
+	}
+
+	public boolean isUsed(int slot) {
+		return keys[slot] != FREE;
+	}
+
+	public long keyAt(int slot) {
+		return keys[slot];
+	}
+
+	public int valueAt(int slot) {
+		return values[slot];
+	}
+
+	public int size() {
+		return size;
+	}
+}
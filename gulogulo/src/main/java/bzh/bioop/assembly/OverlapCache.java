@@ -0,0 +1,274 @@
+package bzh.bioop.assembly;
+
+import java.util.Arrays;
+
+/**
+ * Incremental search of the next read of the greedy loop.
+ *
+ * Between two steps the contig only grows at its right end, so the
+ * alignments of the reads found with the seeds of the KmerIndex are kept:
+ * an alignment is a read starting at position p of the contig, with the
+ * number of mismatches of its overlap. When the contig grows by k bases,
+ * the overlap of each alignment grows by k and only these k bases are
+ * compared; the new alignments come from the seeds of the new end of the
+ * contig. Alignments that can never be accepted (too many mismatches, or
+ * overlap longer than the read) are dropped.
+ *
+ * The alignments are kept in a heap ordered by (p, id): the first one that
+ * is accepted has the largest overlap, then the smallest id, so the result
+ * is the same as Contig.nextReadWithError(index, perror).
+ */
+public class OverlapCache {
+
+	private final Contig contig;
+	private final KmerIndex index;
+	private final ReadPool pool;
+	private final float perror;
+	private final boolean exact;
+
+	private PackedSequence seq; // the sequence of the contig when the cache was updated
+	private int len; // its length then
+	private final LongIntHashMap mismatches = new LongIntHashMap(1024); // (p << 32 | id) -> mismatches
+	private final LongHeap heap = new LongHeap(); // keys of the alignments, may hold dropped ones
+	private long[] aside = new long[16];
+
+	/**
+	 * Create the cache of a contig
+	 * @param contig the contig of the greedy loop
+	 * @param index the index of the reads
+	 * @param perror pourcentage of errors accepted, 0 for exact overlaps
+	 */
+	public OverlapCache(Contig contig, KmerIndex index, float perror) {
+		if (!index.isLossless(perror, 8)) {
+			throw new IllegalArgumentException("perror too high for the seeds of the index: " + perror);
+		}
+		this.contig = contig;
+		this.index = index;
+		this.pool = index.getPool();
+		this.perror = perror;
+		this.exact = perror == 0;
+	}
+
+	/**
+	 * Return the id of the live read with the largest overlap with the contig,
+	 * like contig.nextReadWithError(index, perror)
+	 * @return the id of the read, -1 if overlap < 8
+	 */
+	public int nextRead() {
+		update();
+		AssemblyMetrics metrics = contig.getMetrics();
+		int bestOverlap = 0;
+		int bestId = -1;
+		int nbAside = 0;
+		long last = -1;
+		long popped = 0;
+		while (!heap.isEmpty()) {
+			long key = heap.peek();
+			int p = (int) (key >>> 32);
+			int id = (int) key;
+			int overlap = len - p;
+			if (overlap < 8) {
+				break; // the next alignments are shorter
+			}
+			heap.poll();
+			popped++;
+			if (key == last || !mismatches.containsKey(key)) {
+				continue; // duplicate or dropped
+			}
+			last = key;
+			if (!pool.isLive(id)) {
+				mismatches.remove(key);
+				continue;
+			}
+			if (isAccepted(mismatches.get(key), overlap)) {
+				bestOverlap = overlap;
+				bestId = id;
+				heap.add(key); // still the best if the read is not merged
+				break;
+			}
+			// too many mismatches for now, the next bases may dilute them
+			if (nbAside == aside.length) {
+				aside = Arrays.copyOf(aside, 2 * nbAside);
+			}
+			aside[nbAside++] = key;
+		}
+		for (int i = 0; i < nbAside; i++) {
+			heap.add(aside[i]);
+		}
+		metrics.selection(popped);
+
+		// A read with a non ACGT seed can only miss its seeds where the contig has such a base
+		boolean scan = seq.hasException(Math.max(0, len - index.getMaxReadLength()), len);
+		for (int id : scan ? index.getUnseedable() : new int[0]) {
+			if (!pool.isLive(id)) {
+				continue;
+			}
+			Read r = pool.get(id);
+			int overlap = exact ? contig.exactOverlap(r) : contig.approximateOverlap(r, perror);
+			if (overlap > bestOverlap || (overlap == bestOverlap && id < bestId)) {
+				bestOverlap = overlap;
+				bestId = id;
+			}
+		}
+		int next = bestOverlap >= 8 ? bestId : -1;
+		assert next == contig.nextReadWithError(index, perror) : "overlap cache differs from nextReadWithError";
+		return next;
+	}
+
+	/**
+	 * Bring the alignments up to date with the contig
+	 */
+	private void update() {
+		PackedSequence current = contig.getPacked();
+		int newLen = contig.getLength();
+		if (current != seq || newLen < len) {
+			// first call, or the contig was replaced (reverse complement): start again
+			seq = current;
+			len = 0;
+			heap.clear();
+			mismatches.clear();
+		}
+		if (newLen == len) {
+			return; // a contained read was merged, nothing changed
+		}
+		extendAlignments(newLen);
+		addAlignments(newLen);
+		len = newLen;
+	}
+
+	/**
+	 * Compare the new bases of the contig with the reads of the alignments
+	 */
+	private void extendAlignments(int newLen) {
+		long[] dropped = new long[16];
+		int nbDropped = 0;
+		long compared = 0;
+		for (int slot = 0; slot < mismatches.capacity(); slot++) {
+			if (!mismatches.isUsed(slot)) {
+				continue;
+			}
+			long key = mismatches.keyAt(slot);
+			int p = (int) (key >>> 32);
+			int id = (int) key;
+			Read r = pool.get(id);
+			int m = mismatches.valueAt(slot);
+			if (newLen - p <= r.getLength() && pool.isLive(id)) {
+				m += seq.mismatches(len, r.getPacked(), len - p, newLen - len);
+				compared += newLen - len;
+				if (mayBeAccepted(m, r.getLength())) {
+					mismatches.put(key, m); // the key exists, the slots do not move
+					continue;
+				}
+			}
+			if (nbDropped == dropped.length) {
+				dropped = Arrays.copyOf(dropped, 2 * nbDropped);
+			}
+			dropped[nbDropped++] = key;
+		}
+		for (int i = 0; i < nbDropped; i++) {
+			mismatches.remove(dropped[i]);
+		}
+		contig.getMetrics().overlaps(mismatches.size(), compared);
+	}
+
+	/**
+	 * Find the alignments given by the seeds of the k-mers that are new at
+	 * the end of the contig
+	 */
+	private void addAlignments(int newLen) {
+		int from = Math.max(Math.max(0, newLen - index.getMaxReadLength()), len - index.getK() + 1);
+		long added = 0;
+		long compared = 0;
+		for (int q = from; q + index.getK() <= newLen; q++) {
+			int kmer = index.kmer(seq, q);
+			if (kmer < 0) {
+				continue;
+			}
+			for (int e = index.firstEntry(kmer); e < index.endEntry(kmer); e++) {
+				int id = index.entryRead(e);
+				int s = index.entrySeed(e);
+				int p = q - s;
+				if ((exact && s != 0) || p < 0 || !pool.isLive(id)) {
+					continue;
+				}
+				Read r = pool.get(id);
+				int overlap = newLen - p;
+				long key = (long) p << 32 | id;
+				if (overlap > r.getLength() || mismatches.containsKey(key)) {
+					continue;
+				}
+				int m = seq.mismatches(p, r.getPacked(), 0, overlap);
+				added++;
+				compared += overlap;
+				if (mayBeAccepted(m, r.getLength())) {
+					mismatches.put(key, m);
+					heap.add(key);
+				}
+			}
+		}
+		contig.getMetrics().overlaps(added, compared);
+	}
+
+	private boolean isAccepted(int m, int overlap) {
+		return exact ? m == 0 : (float) m / overlap <= perror;
+	}
+
+	/**
+	 * Check if an alignment can be accepted later, when its overlap is the
+	 * whole read
+	 */
+	private boolean mayBeAccepted(int m, int readLength) {
+		return isAccepted(m, readLength);
+	}
+
+	/**
+	 * Binary min-heap of long
+	 */
+	private static final class LongHeap {
+		private long[] values = new long[64];
+		private int size;
+
+		boolean isEmpty() {
+			return size == 0;
+		}
+
+		long peek() {
+			return values[0];
+		}
+
+		void add(long x) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			int i = size++;
+			while (i > 0 && values[(i - 1) >>> 1] > x) {
+				values[i] = values[(i - 1) >>> 1];
+				i = (i - 1) >>> 1;
+			}
+			values[i] = x;
+		}
+
+		long poll() {
+			long top = values[0];
+			long x = values[--size];
+			int i = 0;
+			while (2 * i + 1 < size) {
+				int c = 2 * i + 1;
+				if (c + 1 < size && values[c + 1] < values[c]) {
+					c++;
+				}
+				if (values[c] >= x) {
+					break;
+				}
+				values[i] = values[c];
+				i = c;
+			}
+			values[i] = x;
+			return top;
+		}
+
+		void clear() {
+			size = 0;
+		}
+	}
+}
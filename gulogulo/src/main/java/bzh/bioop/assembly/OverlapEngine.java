@@ -0,0 +1,245 @@
+package bzh.bioop.assembly;
+
+import java.util.Arrays;
+
+/**
+ * Suffix-prefix overlap computation.
+ *
+ * Exact overlaps are found in linear time with the failure function of
+ * Knuth-Morris-Pratt. Overlaps with errors use the bit-parallel shift-add
+ * algorithm (Baeza-Yates and Gonnet), which computes the number of
+ * mismatches of every suffix-prefix alignment in a single pass over the
+ * packed bases of the text, with the masks of the pattern kept by the read.
+ *
+ * Contig.bestOverlap and Contig.bestOverlapWithError are the reference
+ * implementations: for the same sequences, the engine returns the same
+ * overlap lengths.
+ */
+public final class OverlapEngine {
+
+	private static final ThreadLocal<long[]> STATE = ThreadLocal.withInitial(() -> new long[16]); // counters of suffixPrefixWithError
+
+	private OverlapEngine() {
+	}
+
+	/**
+	 * Compute the KMP failure function of a sequence: failure[i] is the
+	 * length of the longest proper prefix of p[0..i] that is also a suffix of it
+	 * @param p the sequence
+	 * @return the failure function of p
+	 */
+	public static int[] failure(CharSequence p) {
+		int m = p.length();
+		int[] failure = new int[m];
+		int k = 0;
+		for (int i = 1; i < m; i++) {
+			char c = p.charAt(i);
+			while (k > 0 && p.charAt(k) != c) {
+				k = failure[k - 1];
+			}
+			if (p.charAt(k) == c) {
+				k++;
+			}
+			failure[i] = k;
+		}
+		return failure;
+	}
+
+	/**
+	 * Returns the length of the longest suffix of text that is a prefix of
+	 * pattern, in O(text length + pattern length) and without allocation
+	 * @param text the text, usually a contig
+	 * @param pattern the pattern, usually a read
+	 * @param failure the failure function of pattern
+	 * @return the length of the longest suffix-prefix match
+	 */
+	public static int suffixPrefix(CharSequence text, CharSequence pattern, int[] failure) {
+		int m = pattern.length();
+		int n = text.length();
+		if (m == 0) {
+			return 0;
+		}
+		int q = 0; // length of the current match
+		for (int i = Math.max(0, n - m); i < n; i++) { // no longer overlap than the pattern
+			char c = text.charAt(i);
+			if (q == m) {
+				q = failure[q - 1];
+			}
+			while (q > 0 && pattern.charAt(q) != c) {
+				q = failure[q - 1];
+			}
+			if (pattern.charAt(q) == c) {
+				q++;
+			}
+		}
+		return q;
+	}
+
+	/**
+	 * Returns the length of the longest suffix of text that matches a prefix
+	 * of pattern with max perror pourcentage of errors (mismatches / length).
+	 * The sequences are packed, then compared like the packed sequences of
+	 * the assembly.
+	 * @param text the text, usually a contig
+	 * @param pattern the pattern, usually a read
+	 * @param perror pourcentage of errors accepted
+	 * @return the length of the longest suffix-prefix match
+	 */
+	public static int suffixPrefixWithError(CharSequence text, CharSequence pattern, float perror) {
+		return suffixPrefixWithError(new PackedSequence(text), text.length(),
+				errorPattern(new PackedSequence(pattern)), perror);
+	}
+
+	/**
+	 * Returns the length of the longest suffix of text[0..n) that matches a
+	 * prefix of the pattern with max perror pourcentage of errors.
+	 *
+	 * The state is a vector of counters, one per position j of the pattern,
+	 * packed in longs. After reading the text base t, every counter is
+	 * shifted by one position and the counter j is incremented if pattern[j]
+	 * differs from t. At the end of the text, the counter j holds the number
+	 * of mismatches of the overlap of length j+1. The bases of the text are
+	 * taken 32 at a time from its packed words, and the state is reused
+	 * between the calls of a thread.
+	 * @param text the text, usually a contig
+	 * @param n the number of bases of the text, its end is aligned with the pattern
+	 * @param pattern the mismatch masks of the pattern, built by errorPattern
+	 * @param perror pourcentage of errors accepted
+	 * @return the length of the longest suffix-prefix match
+	 */
+	public static int suffixPrefixWithError(PackedSequence text, int n, ErrorPattern pattern, float perror) {
+		return suffixPrefixWithError(text, n, pattern, perror, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Like suffixPrefixWithError(text, n, pattern, perror), but only for the
+	 * overlaps of at most maxOverlap bases
+	 * @param maxOverlap the longest overlap accepted
+	 * @return the length of the longest suffix-prefix match, at most maxOverlap
+	 */
+	public static int suffixPrefixWithError(PackedSequence text, int n, ErrorPattern pattern, float perror,
+			int maxOverlap) {
+		int m = pattern.seq.length();
+		int w = Math.min(n, m); // maximum possible overlap
+		if (w == 0) {
+			return 0;
+		}
+		if (pattern.masks == null) {
+			return suffixPrefixWithErrorSlow(text, n, pattern.seq, perror, maxOverlap);
+		}
+		int bits = pattern.bits;
+		int words = pattern.words;
+		long[] masks = pattern.masks;
+		long[] state = STATE.get();
+		if (state.length < words) {
+			state = new long[Math.max(words, 2 * state.length)];
+			STATE.set(state);
+		}
+		Arrays.fill(state, 0, words, 0);
+
+		for (int i = n - w; i < n; ) {
+			int chunk = Math.min(32, n - i);
+			long bases = text.word(i);
+			boolean exceptions = text.hasException(i, i + chunk);
+			for (int k = 0; k < chunk; k++, i++) {
+				long[] mask = masks;
+				int offset = ((int) (bases >>> (2 * k)) & 3) * words;
+				if (exceptions && text.isException(i)) {
+					mask = mismatchMask(pattern.seq, text.charAt(i), bits, words);
+					offset = 0;
+				}
+				for (int x = words - 1; x > 0; x--) {
+					state[x] = ((state[x] << bits) | (state[x - 1] >>> (64 - bits))) + mask[offset + x];
+				}
+				state[0] = (state[0] << bits) + mask[offset];
+			}
+		}
+
+		int perWord = 64 / bits;
+		long fieldMask = (1L << bits) - 1;
+		for (int o = Math.min(w, maxOverlap); o > 0; o--) { // from the longest overlap
+			int j = o - 1;
+			long diffCount = (state[j / perWord] >>> (bits * (j % perWord))) & fieldMask;
+			if ((float) diffCount / o <= perror) {
+				return o;
+			}
+		}
+		return 0;
+	}
+
+	/**
+	 * Mismatch masks of a pattern for the bit-parallel engine, computed once
+	 * per read and reused by all its overlaps
+	 */
+	static final class ErrorPattern {
+		private final PackedSequence seq;
+		private final int bits; // bits of a counter: 8 for short reads, else 16
+		private final int words;
+		private final long[] masks; // mask of the nucleotide b in [b * words, (b + 1) * words), null if too long
+
+		private ErrorPattern(PackedSequence seq) {
+			int m = seq.length();
+			this.seq = seq;
+			this.bits = m < (1 << 8) ? 8 : 16; // counters must hold m mismatches
+			int perWord = 64 / bits;
+			this.words = (m + perWord - 1) / perWord;
+			if (m >= (1 << 16)) {
+				this.masks = null;
+				return;
+			}
+			masks = new long[4 * words];
+			for (int j = 0; j < m; j++) {
+				int code = seq.code(j);
+				long bit = 1L << (bits * (j % perWord));
+				for (int b = 0; b < 4; b++) {
+					if (b != code) { // a non ACGT base differs from every nucleotide
+						masks[b * words + j / perWord] |= bit;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Build the mismatch masks of a pattern
+	 * @param pattern the pattern, usually a read
+	 * @return the masks, for suffixPrefixWithError
+	 */
+	static ErrorPattern errorPattern(PackedSequence pattern) {
+		return new ErrorPattern(pattern);
+	}
+
+	/**
+	 * Build the vector with 1 in the counter j if pattern[j] differs from c,
+	 * for the bases of the text that are not A, C, G or T
+	 */
+	private static long[] mismatchMask(CharSequence pattern, char c, int bits, int words) {
+		int perWord = 64 / bits;
+		long[] mask = new long[words];
+		for (int j = 0; j < pattern.length(); j++) {
+			if (pattern.charAt(j) != c) {
+				mask[j / perWord] |= 1L << (bits * (j % perWord));
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * Count the mismatches of each overlap, for patterns too long for the counters
+	 */
+	private static int suffixPrefixWithErrorSlow(CharSequence text, int n, CharSequence pattern, float perror,
+			int maxOverlap) {
+		for (int o = Math.min(Math.min(n, pattern.length()), maxOverlap); o > 0; o--) {
+			int diffCount = 0;
+			for (int j = 0; j < o; j++) {
+				if (text.charAt(n - o + j) != pattern.charAt(j)) {
+					diffCount++;
+				}
+			}
+			if ((float) diffCount / o <= perror) {
+				return o;
+			}
+		}
+		return 0;
+	}
+}
@@ -0,0 +1,336 @@
+package bzh.bioop.assembly;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Assembly with an overlap graph (string graph).
+ *
+ * All the overlaps of at least MIN_OVERLAP bases between the suffix of a
+ * read and the prefix of another are computed once, with the seeds of the
+ * KmerIndex, and stored in adjacency arrays. When perror is too high for
+ * the seeds of the index to find every overlap, the reads are indexed
+ * again with the longest seeds that do, down to MIN_SEED bases; higher
+ * error rates are rejected. Contained reads are removed,
+ * the graph is transitively reduced, then each unitig (path without
+ * branch) gives one contig. Unlike the greedy loop, no read is dropped:
+ * every read which is not contained ends in a contig.
+ */
+public class OverlapGraphAssembler {
+
+	public static final int MIN_OVERLAP = 8;
+	public static final int MIN_SEED = 5; // shorter seeds are in most reads, like comparing all the pairs
+
+	private final ReadPool pool;
+	private final KmerIndex index;
+	private final float perror;
+	private AssemblyMetrics metrics = AssemblyMetrics.get();
+
+	private boolean[] contained; // reads included in another read
+	private int[] offsets; // out edges of read v are in [offsets[v], offsets[v+1])
+	private int[] targets;
+	private int[] overlaps;
+	private boolean[] reduced; // edges removed by the transitive reduction
+
+	/**
+	 * Create the assembler of the reads of an index
+	 * @param index the index of the reads to assemble
+	 * @param perror pourcentage of errors accepted in the overlaps
+	 * @throws IllegalArgumentException if seeds of MIN_SEED bases can miss overlaps with perror
+	 */
+	public OverlapGraphAssembler(KmerIndex index, float perror) {
+		this.pool = index.getPool();
+		this.perror = perror;
+		if (index.isLossless(perror, MIN_OVERLAP)) {
+			this.index = index;
+		} else {
+			int k = KmerIndex.seedLength(perror, MIN_OVERLAP, index.getMaxReadLength());
+			if (k < MIN_SEED) {
+				throw new IllegalArgumentException("perror too high for the overlap graph, seeds of "
+						+ MIN_SEED + " bases can miss overlaps: " + perror);
+			}
+			this.index = new KmerIndex(pool, k);
+		}
+	}
+
+	/**
+	 * Build the graph and walk its unitigs
+	 * @return the contigs, one per unitig
+	 */
+	public List<Contig> assemble() {
+		buildGraph();
+		reduceGraph();
+		return walkUnitigs();
+	}
+
+	/**
+	 * Set the metrics of the assembly, AssemblyMetrics.get() by default
+	 */
+	public void setMetrics(AssemblyMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	// --- Overlaps ---
+
+	/**
+	 * Compute the overlaps of every read with the reads that follow it
+	 */
+	private void buildGraph() {
+		int n = pool.size();
+		contained = new boolean[n];
+		int[] bestOverlap = new int[n]; // best overlap with the current read
+		int[] stamp = new int[n]; // read for which bestOverlap is valid, plus one
+		int[] touched = new int[n];
+		IntList from = new IntList();
+		IntList to = new IntList();
+		IntList length = new IntList();
+
+		for (int v = 0; v < n; v++) {
+			PackedSequence seq = pool.get(v).getPacked();
+			int lv = seq.length();
+			int nbTouched = 0;
+			for (int q = 0; q + index.getK() <= lv; q++) {
+				int kmer = index.kmer(seq, q);
+				if (kmer < 0) {
+					continue;
+				}
+				for (int e = index.firstEntry(kmer); e < index.endEntry(kmer); e++) {
+					int w = index.entryRead(e);
+					int p = q - index.entrySeed(e); // position of w in v
+					if (w == v || p < 0 || (perror == 0 && p != q)) {
+						continue; // w starts before v: found from w
+					}
+					if (stamp[w] != v + 1) {
+						stamp[w] = v + 1;
+						bestOverlap[w] = 0;
+						touched[nbTouched++] = w;
+					}
+					check(v, w, p, bestOverlap);
+				}
+			}
+			// reads with a non ACGT seed are compared with the reads that have such a base
+			for (int w : seq.hasException(0, lv) ? index.getUnseedable() : new int[0]) {
+				if (w == v) {
+					continue;
+				}
+				if (stamp[w] != v + 1) {
+					stamp[w] = v + 1;
+					bestOverlap[w] = 0;
+					touched[nbTouched++] = w;
+				}
+				for (int p = 0; p < lv; p++) {
+					check(v, w, p, bestOverlap);
+				}
+			}
+			Arrays.sort(touched, 0, nbTouched);
+			for (int t = 0; t < nbTouched; t++) {
+				int w = touched[t];
+				if (bestOverlap[w] >= MIN_OVERLAP) {
+					from.add(v);
+					to.add(w);
+					length.add(bestOverlap[w]);
+				}
+			}
+		}
+
+		// adjacency arrays of the edges between reads that are not contained
+		offsets = new int[n + 1];
+		for (int e = 0; e < from.size(); e++) {
+			if (!contained[from.get(e)] && !contained[to.get(e)]) {
+				offsets[from.get(e) + 1]++;
+			}
+		}
+		for (int v = 0; v < n; v++) {
+			offsets[v + 1] += offsets[v];
+		}
+		targets = new int[offsets[n]];
+		overlaps = new int[offsets[n]];
+		int[] fill = Arrays.copyOf(offsets, n);
+		for (int e = 0; e < from.size(); e++) {
+			if (!contained[from.get(e)] && !contained[to.get(e)]) {
+				int f = fill[from.get(e)]++;
+				targets[f] = to.get(e);
+				overlaps[f] = length.get(e);
+			}
+		}
+		reduced = new boolean[offsets[n]];
+		sortEdgesByOverhang();
+	}
+
+	/**
+	 * Check the alignment of read w starting at position p of read v:
+	 * either w is contained in v, or the suffix of v overlaps the prefix of w
+	 */
+	private void check(int v, int w, int p, int[] bestOverlap) {
+		PackedSequence sv = pool.get(v).getPacked();
+		PackedSequence sw = pool.get(w).getPacked();
+		int lv = sv.length();
+		int lw = sw.length();
+		if (p + lw <= lv) { // w inside v
+			boolean sameRead = lw == lv; // identical reads: only the second one is contained
+			if (!contained[w] && (!sameRead || w > v) && matches(sv, p, sw, lw)) {
+				contained[w] = true;
+			}
+			return;
+		}
+		int overlap = lv - p;
+		if (overlap > bestOverlap[w] && overlap >= MIN_OVERLAP && matches(sv, p, sw, overlap)) {
+			bestOverlap[w] = overlap;
+		}
+	}
+
+	/**
+	 * Check if the length bases of sv starting at p match the prefix of sw
+	 */
+	private boolean matches(PackedSequence sv, int p, PackedSequence sw, int length) {
+		if (perror == 0) {
+			return sv.regionMatches(p, sw, 0, length);
+		}
+		return (float) sv.mismatches(p, sw, 0, length) / length <= perror;
+	}
+
+	/**
+	 * Sort the out edges of each read by overhang (bases added by the edge),
+	 * then by target, as needed by the transitive reduction
+	 */
+	private void sortEdgesByOverhang() {
+		for (int v = 0; v < offsets.length - 1; v++) {
+			int start = offsets[v];
+			int end = offsets[v + 1];
+			long[] keys = new long[end - start];
+			for (int e = start; e < end; e++) {
+				keys[e - start] = (long) overhang(e) << 32 | targets[e];
+			}
+			Arrays.sort(keys);
+			for (int e = start; e < end; e++) {
+				targets[e] = (int) keys[e - start];
+				overlaps[e] = pool.get(targets[e]).getLength() - (int) (keys[e - start] >>> 32);
+			}
+		}
+	}
+
+	private int overhang(int e) {
+		return pool.get(targets[e]).getLength() - overlaps[e];
+	}
+
+	// --- Transitive reduction ---
+
+	/**
+	 * Remove the edges v->x that are implied by two edges v->w->x
+	 * (Myers, The fragment assembly string graph, 2005)
+	 */
+	private void reduceGraph() {
+		int n = pool.size();
+		final byte vacant = 0;
+		final byte inplay = 1;
+		final byte eliminated = 2;
+		byte[] mark = new byte[n];
+		for (int v = 0; v < n; v++) {
+			int start = offsets[v];
+			int end = offsets[v + 1];
+			if (end - start < 2) {
+				continue;
+			}
+			for (int e = start; e < end; e++) {
+				mark[targets[e]] = inplay;
+			}
+			int longest = overhang(end - 1); // edges are sorted by overhang
+			for (int e = start; e < end; e++) {
+				int w = targets[e];
+				if (mark[w] != inplay) {
+					continue;
+				}
+				for (int f = offsets[w]; f < offsets[w + 1]; f++) {
+					int x = targets[f];
+					if (overhang(e) + overhang(f) > longest) {
+						break;
+					}
+					if (mark[x] == inplay) {
+						mark[x] = eliminated;
+					}
+				}
+			}
+			for (int e = start; e < end; e++) {
+				if (mark[targets[e]] == eliminated) {
+					reduced[e] = true;
+				}
+				mark[targets[e]] = vacant;
+			}
+		}
+	}
+
+	// --- Unitigs ---
+
+	/**
+	 * Follow the paths where each read has one successor which has one
+	 * predecessor, each path gives a contig
+	 */
+	private List<Contig> walkUnitigs() {
+		int n = pool.size();
+		int[] inDegree = new int[n];
+		int[] outDegree = new int[n];
+		int[] next = new int[n]; // successor when outDegree is 1
+		int[] nextOverlap = new int[n];
+		int[] previous = new int[n]; // predecessor when inDegree is 1
+		for (int v = 0; v < n; v++) {
+			for (int e = offsets[v]; e < offsets[v + 1]; e++) {
+				if (!reduced[e]) {
+					outDegree[v]++;
+					inDegree[targets[e]]++;
+					previous[targets[e]] = v;
+					next[v] = targets[e];
+					nextOverlap[v] = overlaps[e];
+				}
+			}
+		}
+
+		boolean[] visited = new boolean[n];
+		List<Contig> contigs = new ArrayList<>();
+		// first the paths starting at a read without a unique predecessor, then the cycles
+		for (int pass = 0; pass < 2; pass++) {
+			for (int v = 0; v < n; v++) {
+				if (visited[v] || contained[v] || (pass == 0 && inDegree[v] == 1 && outDegree[previous[v]] == 1)) {
+					continue;
+				}
+				Read r = pool.get(v);
+				PackedSequence first = new PackedSequence(r.getLength());
+				first.append(r.getPacked(), 0, r.getLength()); // copy, the read is not modified by the fusions
+				Contig contig = new Contig(first, 1); // the reads of the unitig, the first one included
+				contig.setMetrics(metrics);
+				visited[v] = true;
+				int u = v;
+				while (outDegree[u] == 1 && inDegree[next[u]] == 1 && !visited[next[u]]) {
+					contig.fusion(pool.get(next[u]), nextOverlap[u]);
+					u = next[u];
+					visited[u] = true;
+				}
+				contigs.add(contig);
+			}
+		}
+		return contigs;
+	}
+
+	/**
+	 * Growable array of int, to collect the edges before the adjacency arrays
+	 */
+	private static final class IntList {
+		private int[] values = new int[1024];
+		private int size;
+
+		void add(int x) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = x;
+		}
+
+		int get(int i) {
+			return values[i];
+		}
+
+		int size() {
+			return size;
+		}
+	}
+}
@@ -0,0 +1,534 @@
+package bzh.bioop.assembly;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Sequence of nucleotides packed on 2 bits per base, 32 bases per long.
+ *
+ * A, C, G and T are encoded 0, 1, 2 and 3, the base i being stored in the
+ * bits 2*(i%32) and 2*(i%32)+1 of the word i/32. Any other character (N,
+ * IUPAC codes...) is an exception: its bit is set in the exception mask and
+ * the original character is kept aside, so the sequence is restored as is.
+ */
+public final class PackedSequence implements Sequence, CharSequence {
+
+	private static final String NUCLEOTIDES = "ACGT";
+
+	private long[] words;
+	private int length;
+	private long[] exceptionMask; // bit i is set if base i is an exception, null if no exception
+	private int[] exceptionPos; // positions of the exceptions, in increasing order
+	private char[] exceptionChar; // original character of each exception
+	private int nbExceptions;
+
+	/**
+	 * Pack a sequence of characters
+	 * @param s the sequence to pack
+	 */
+	public PackedSequence(CharSequence s) {
+		this(s.length());
+		append(s, 0, s.length());
+	}
+
+	/**
+	 * Create an empty sequence
+	 * @param capacity the number of bases that can be appended without reallocation
+	 */
+	PackedSequence(int capacity) {
+		words = new long[Math.max(1, (capacity + 31) >>> 5)];
+		length = 0;
+	}
+
+	/**
+	 * Encode a nucleotide on 2 bits
+	 * @param c the nucleotide
+	 * @return its code, or -1 if c is not A, C, G or T
+	 */
+	public static int encode(char c) {
+		switch (c) {
+			case 'A': return 0;
+			case 'C': return 1;
+			case 'G': return 2;
+			case 'T': return 3;
+			default: return -1;
+		}
+	}
+
+	// --- Building ---
+
+	/**
+	 * Append the characters s[from..to) at the end of the sequence
+	 */
+	void append(CharSequence s, int from, int to) {
+		ensureCapacity(length + to - from);
+		for (int i = from; i < to; i++) {
+			appendBase(s.charAt(i));
+		}
+	}
+
+	/**
+	 * Append the bases s[from..to) at the end of the sequence, 32 bases at a time
+	 */
+	void append(PackedSequence s, int from, int to) {
+		ensureCapacity(length + to - from);
+		int start = length;
+		for (int i = from; i < to; i += 32) {
+			int n = Math.min(32, to - i);
+			long w = s.word(i);
+			if (n < 32) {
+				w &= (1L << (2 * n)) - 1;
+			}
+			int pos = length;
+			int sh = (pos & 31) << 1;
+			words[pos >>> 5] |= w << sh;
+			if (sh != 0 && (pos >>> 5) + 1 < words.length) {
+				words[(pos >>> 5) + 1] |= w >>> (64 - sh);
+			}
+			length += n;
+		}
+		// the exceptions of s are copied one by one
+		for (int e = s.firstException(from); e < s.nbExceptions && s.exceptionPos[e] < to; e++) {
+			addException(start + s.exceptionPos[e] - from, s.exceptionChar[e]);
+		}
+	}
+
+	/**
+	 * Append one base at the end of the sequence
+	 */
+	void appendBase(char c) {
+		ensureCapacity(length + 1);
+		int code = encode(c);
+		if (code < 0) {
+			addException(length, c);
+			code = 0;
+		}
+		words[length >>> 5] |= (long) code << ((length & 31) << 1);
+		length++;
+	}
+
+	/**
+	 * Free the capacity that is not used, once the sequence is complete
+	 */
+	void trimToSize() {
+		int needed = Math.max(1, (length + 31) >>> 5);
+		if (needed < words.length) {
+			words = Arrays.copyOf(words, needed);
+		}
+		if (exceptionMask != null) {
+			exceptionMask = Arrays.copyOf(exceptionMask, (length + 63) >>> 6);
+			exceptionPos = Arrays.copyOf(exceptionPos, nbExceptions);
+			exceptionChar = Arrays.copyOf(exceptionChar, nbExceptions);
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		int needed = (capacity + 31) >>> 5;
+		if (needed > words.length) {
+			words = Arrays.copyOf(words, Math.max(needed, words.length * 2));
+		}
+	}
+
+	private void addException(int pos, char c) {
+		if (exceptionMask == null) {
+			exceptionMask = new long[words.length];
+			exceptionPos = new int[4];
+			exceptionChar = new char[4];
+		}
+		if (exceptionMask.length < words.length) {
+			exceptionMask = Arrays.copyOf(exceptionMask, words.length);
+		}
+		if (nbExceptions == exceptionPos.length) {
+			exceptionPos = Arrays.copyOf(exceptionPos, nbExceptions * 2);
+			exceptionChar = Arrays.copyOf(exceptionChar, nbExceptions * 2);
+		}
+		exceptionMask[pos >>> 6] |= 1L << pos;
+		exceptionPos[nbExceptions] = pos;
+		exceptionChar[nbExceptions] = c;
+		nbExceptions++;
+	}
+
+	/**
+	 * Index of the first exception at a position >= pos
+	 */
+	private int firstException(int pos) {
+		if (nbExceptions == 0) {
+			return 0;
+		}
+		int e = Arrays.binarySearch(exceptionPos, 0, nbExceptions, pos);
+		return e >= 0 ? e : -e - 1;
+	}
+
+	/**
+	 * Reverse complement of the sequence. The exceptions are complemented
+	 * with the IUPAC rules (R and Y, K and M, B and V, D and H are swapped).
+	 * @return a new sequence, this one is not modified
+	 */
+	public PackedSequence reverseComplement() {
+		PackedSequence rc = new PackedSequence(length);
+		for (int i = length - 1; i >= 0; i--) {
+			int code = code(i);
+			if (code < 0) {
+				rc.appendBase(complement(charAt(i)));
+			} else {
+				rc.words[rc.length >>> 5] |= (long) (3 - code) << ((rc.length & 31) << 1); // A-T and C-G are 0-3 and 1-2
+				rc.length++;
+			}
+		}
+		return rc;
+	}
+
+	/**
+	 * Complement of a nucleotide or of an IUPAC code, other characters are kept
+	 */
+	public static char complement(char c) {
+		switch (c) {
+			case 'A': return 'T';
+			case 'C': return 'G';
+			case 'G': return 'C';
+			case 'T': return 'A';
+			case 'R': return 'Y';
+			case 'Y': return 'R';
+			case 'K': return 'M';
+			case 'M': return 'K';
+			case 'B': return 'V';
+			case 'V': return 'B';
+			case 'D': return 'H';
+			case 'H': return 'D';
+			default: return c; // N, S, W and unknown characters
+		}
+	}
+
+	// --- Binary form ---
+
+	/**
+	 * Write the sequence: its length, its words, then its exceptions
+	 * @param out the output
+	 * @throws IOException
+	 */
+	void write(DataOutput out) throws IOException {
+		out.writeInt(length);
+		int nbWords = (length + 31) >>> 5;
+		for (int w = 0; w < nbWords; w++) {
+			out.writeLong(words[w]);
+		}
+		out.writeInt(nbExceptions);
+		for (int e = 0; e < nbExceptions; e++) {
+			out.writeInt(exceptionPos[e]);
+			out.writeChar(exceptionChar[e]);
+		}
+	}
+
+	/**
+	 * Read a sequence written by write
+	 * @param in the input
+	 * @param maxBytes the most bytes left in the input, a longer sequence is
+	 * corrupted and is rejected before it is allocated
+	 * @return the sequence
+	 * @throws IOException
+	 */
+	static PackedSequence read(DataInput in, long maxBytes) throws IOException {
+		int length = in.readInt();
+		int nbWords = (length + 31) >>> 5;
+		if (length < 0 || 8L * nbWords > maxBytes) {
+			throw new IOException("invalid sequence length: " + length);
+		}
+		PackedSequence s = new PackedSequence(length);
+		for (int w = 0; w < nbWords; w++) {
+			s.words[w] = in.readLong();
+		}
+		if ((length & 31) != 0) {
+			s.words[nbWords - 1] &= (1L << ((length & 31) << 1)) - 1; // the next bases are appended with |
+		}
+		s.length = length;
+		int nbExceptions = in.readInt();
+		if (nbExceptions < 0 || nbExceptions > length || 6L * nbExceptions > maxBytes - 8L * nbWords) {
+			throw new IOException("invalid number of exceptions: " + nbExceptions);
+		}
+		for (int e = 0; e < nbExceptions; e++) {
+			int pos = in.readInt();
+			char c = in.readChar();
+			if (pos < 0 || pos >= length || (e > 0 && pos <= s.exceptionPos[e - 1])) {
+				throw new IOException("invalid exception position: " + pos);
+			}
+			s.addException(pos, c);
+		}
+		return s;
+	}
+
+	// --- Access ---
+
+	/**
+	 * Accessor for the 2 bits code of a base
+	 * @param i the position of the base
+	 * @return the code of the base, or -1 if it is not A, C, G or T
+	 */
+	public int code(int i) {
+		if (isException(i)) {
+			return -1;
+		}
+		return (int) (words[i >>> 5] >>> ((i & 31) << 1)) & 3;
+	}
+
+	/**
+	 * Accessor for 32 packed bases, the base pos being in the lowest bits.
+	 * Bases after the end of the sequence are 0.
+	 * @param pos the position of the first base
+	 * @return the packed bases
+	 */
+	public long word(int pos) {
+		int w = pos >>> 5;
+		int sh = (pos & 31) << 1;
+		if (w >= words.length) {
+			return 0;
+		}
+		long x = words[w] >>> sh;
+		if (sh != 0 && w + 1 < words.length) {
+			x |= words[w + 1] << (64 - sh);
+		}
+		return x;
+	}
+
+	/**
+	 * Check if the base i is an exception (not A, C, G or T)
+	 */
+	public boolean isException(int i) {
+		return exceptionMask != null && (i >>> 6) < exceptionMask.length && (exceptionMask[i >>> 6] & (1L << i)) != 0;
+	}
+
+	/**
+	 * Check if the bases [from..to) contain an exception
+	 */
+	public boolean hasException(int from, int to) {
+		if (nbExceptions == 0) {
+			return false;
+		}
+		int e = firstException(from);
+		return e < nbExceptions && exceptionPos[e] < to;
+	}
+
+	/**
+	 * Exception bits of the n (<= 32) bases starting at pos
+	 */
+	private long exceptionBits(int pos, int n) {
+		if (exceptionMask == null) {
+			return 0;
+		}
+		int w = pos >>> 6;
+		int sh = pos & 63;
+		long x = w < exceptionMask.length ? exceptionMask[w] >>> sh : 0;
+		if (sh != 0 && w + 1 < exceptionMask.length) {
+			x |= exceptionMask[w + 1] << (64 - sh);
+		}
+		return x & ((1L << n) - 1);
+	}
+
+	/**
+	 * View on the bases [from..to) of the sequence, without copy
+	 * @param from the first base of the view
+	 * @param to the end of the view
+	 * @return the view
+	 */
+	public CharSequence window(int from, int to) {
+		return new Window(this, from, to);
+	}
+
+	/**
+	 * Read only view on a part of a sequence. The sequence can grow after the
+	 * creation of the view, the view still shows the same bases.
+	 */
+	private static final class Window implements CharSequence {
+		private final PackedSequence seq;
+		private final int from;
+		private final int to;
+
+		Window(PackedSequence seq, int from, int to) {
+			this.seq = seq;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		public char charAt(int i) {
+			return seq.charAt(from + i);
+		}
+
+		@Override
+		public int length() {
+			return to - from;
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new Window(seq, from + start, from + end);
+		}
+
+		@Override
+		public String toString() {
+			return new StringBuilder(this).toString();
+		}
+	}
+
+	// --- Comparisons, 32 bases at a time ---
+
+	/**
+	 * Check if the len bases starting at from are the same as the len bases of
+	 * other starting at otherFrom
+	 * @return true if the two regions are equal
+	 */
+	public boolean regionMatches(int from, PackedSequence other, int otherFrom, int len) {
+		for (int off = 0; off < len; off += 32) {
+			int n = Math.min(32, len - off);
+			long diff = diffLanes(from + off, other, otherFrom + off, n);
+			long ex = exceptionBits(from + off, n) | other.exceptionBits(otherFrom + off, n);
+			if ((diff & ~spread(ex)) != 0 || (ex != 0 && countExceptionMismatches(from + off, other, otherFrom + off, ex) != 0)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Count the differences between the len bases starting at from and the
+	 * len bases of other starting at otherFrom
+	 * @return the number of mismatches
+	 */
+	public int mismatches(int from, PackedSequence other, int otherFrom, int len) {
+		int diffCount = 0;
+		for (int off = 0; off < len; off += 32) {
+			int n = Math.min(32, len - off);
+			long diff = diffLanes(from + off, other, otherFrom + off, n);
+			long ex = exceptionBits(from + off, n) | other.exceptionBits(otherFrom + off, n);
+			if (ex == 0) {
+				diffCount += Long.bitCount(diff);
+			} else {
+				diffCount += Long.bitCount(diff & ~spread(ex));
+				diffCount += countExceptionMismatches(from + off, other, otherFrom + off, ex);
+			}
+		}
+		return diffCount;
+	}
+
+	/**
+	 * One bit (the lowest of each 2 bits lane) per different base among the n bases
+	 */
+	private long diffLanes(int from, PackedSequence other, int otherFrom, int n) {
+		long x = word(from) ^ other.word(otherFrom);
+		x = (x | (x >>> 1)) & 0x5555555555555555L;
+		if (n < 32) {
+			x &= (1L << (2 * n)) - 1;
+		}
+		return x;
+	}
+
+	/**
+	 * Compare character by character the bases where one of the sequences has an exception
+	 */
+	private int countExceptionMismatches(int from, PackedSequence other, int otherFrom, long ex) {
+		int diffCount = 0;
+		while (ex != 0) {
+			int i = Long.numberOfTrailingZeros(ex);
+			if (charAt(from + i) != other.charAt(otherFrom + i)) {
+				diffCount++;
+			}
+			ex &= ex - 1;
+		}
+		return diffCount;
+	}
+
+	/**
+	 * Move the bit i of x to the bit 2i, for 32 bits
+	 */
+	private static long spread(long x) {
+		x &= 0xFFFFFFFFL;
+		x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+		x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+		x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+		x = (x | (x << 2)) & 0x3333333333333333L;
+		x = (x | (x << 1)) & 0x5555555555555555L;
+		return x;
+	}
+
+	// --- CharSequence and Sequence ---
+
+	@Override
+	public char charAt(int i) {
+		if (i < 0 || i >= length) {
+			throw new IndexOutOfBoundsException(i);
+		}
+		if (isException(i)) {
+			return exceptionChar[firstException(i)];
+		}
+		return NUCLEOTIDES.charAt((int) (words[i >>> 5] >>> ((i & 31) << 1)) & 3);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		PackedSequence sub = new PackedSequence(end - start);
+		sub.append(this, start, end);
+		return sub;
+	}
+
+	@Override
+	public int getLength() {
+		return length;
+	}
+
+	@Override
+	public String getSeq() {
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = NUCLEOTIDES.charAt((int) (words[i >>> 5] >>> ((i & 31) << 1)) & 3);
+		}
+		for (int e = 0; e < nbExceptions; e++) {
+			chars[exceptionPos[e]] = exceptionChar[e];
+		}
+		return new String(chars);
+	}
+
+	@Override
+	public PackedSequence getPacked() {
+		return this;
+	}
+
+	/**
+	 * Copy the bases [from..to) as ASCII characters, without building a String
+	 * @param dst the destination
+	 * @param offset the position of the base from in dst
+	 */
+	public void getBytes(int from, int to, byte[] dst, int offset) {
+		for (int i = from; i < to; i++) {
+			dst[offset + i - from] = (byte) NUCLEOTIDES.charAt((int) (words[i >>> 5] >>> ((i & 31) << 1)) & 3);
+		}
+		for (int e = firstException(from); e < nbExceptions && exceptionPos[e] < to; e++) {
+			dst[offset + exceptionPos[e] - from] = (byte) exceptionChar[e];
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getSeq();
+	}
+
+	/**
+	 * Format the sequence like Fasta, 60 nucleotides max per line
+	 * @return the formatted sequence
+	 */
+	@Override
+	public String fastaFormat() {
+		String seq = getSeq();
+		StringBuilder sb = new StringBuilder(length + length / 60 + 1);
+		int lineLength = 60;
+		for (int i = 0; i < length; i += lineLength) {
+			sb.append(seq, i, Math.min(i + lineLength, length)).append("\n");
+		}
+		return sb.toString();
+	}
+}
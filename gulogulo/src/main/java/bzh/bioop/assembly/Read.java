@@ -6,7 +6,10 @@ package bzh.bioop.assembly;
 public class Read implements Sequence {
 
 	private final int len;
-	private final String seq;
+	private final PackedSequence seq; // 2 bits per nucleotide
+	private volatile int[] failure; // KMP failure function, computed on first use
+	private volatile OverlapEngine.ErrorPattern errorPattern; // masks of the overlaps with errors, computed on first use
+	private volatile Read reverse; // reverse complement, computed on first use
 
 	public static void main(String[] args) {
 		Read r1 = new Read("azertyuiop");
@@ -17,11 +20,16 @@ public class Read implements Sequence {
 	}
 
 	public Read() {
-		seq = "azertyuiopqsdfghjklmwxcvbnazertyuiopdfghjklmqsdfghjklmllllkjhgfdsqsdfgaaaaaaaaaaacccccccccccccccccccccctttttttttttttttttttddddddddddddddddddhjklm";
+		seq = new PackedSequence("azertyuiopqsdfghjklmwxcvbnazertyuiopdfghjklmqsdfghjklmllllkjhgfdsqsdfgaaaaaaaaaaacccccccccccccccccccccctttttttttttttttttttddddddddddddddddddhjklm");
 		len = seq.length();
 	}
 
 	public Read(String s) {
+		seq = new PackedSequence(s);
+		len = seq.length();
+	}
+
+	public Read(PackedSequence s) {
 		seq = s;
 		len = seq.length();
 	}
@@ -66,9 +74,53 @@ public class Read implements Sequence {
 		return (float)diffCount/minLength <= perror;
 	}
 
+	/**
+	 * Accessor for the KMP failure function of the sequence, used by the
+	 * overlap engine. It is computed once, the first time it is needed.
+	 * @return the failure function of the sequence
+	 */
+	int[] getFailure() {
+		int[] f = failure;
+		if (f == null) {
+			f = OverlapEngine.failure(seq);
+			failure = f;
+		}
+		return f;
+	}
+
+	/**
+	 * Accessor for the mismatch masks of the sequence, used by the overlap
+	 * engine with errors. They are computed once, the first time they are needed.
+	 * @return the masks of the sequence
+	 */
+	OverlapEngine.ErrorPattern getErrorPattern() {
+		OverlapEngine.ErrorPattern p = errorPattern;
+		if (p == null) {
+			p = OverlapEngine.errorPattern(seq);
+			errorPattern = p;
+		}
+		return p;
+	}
+
+	/**
+	 * Accessor for the reverse complement of the read, the read on the other
+	 * strand. It is computed once, with its own failure function, so the
+	 * overlaps on the reverse strand cost the same as on the forward one.
+	 * @return the reverse complement read
+	 */
+	public Read getReverseComplement() {
+		Read rc = reverse;
+		if (rc == null) {
+			rc = new Read(seq.reverseComplement());
+			rc.reverse = this;
+			reverse = rc;
+		}
+		return rc;
+	}
+
     @Override
 	public String toString() {
-		return seq;
+		return seq.toString();
 	}
 
     @Override
@@ -78,6 +130,15 @@ public class Read implements Sequence {
 
     @Override
 	public String getSeq() {
+		return seq.getSeq();
+	}
+
+	/**
+	 * Accessor for the packed sequence, used by the assembly without building Strings
+	 * @return the packed sequence
+	 */
+	@Override
+	public PackedSequence getPacked() {
 		return seq;
 	}
 
@@ -87,16 +148,7 @@ public class Read implements Sequence {
 	 */
     @Override
 	public String fastaFormat() {
-		StringBuilder sb = new StringBuilder();
-		int lineLength = 60;
-		for (int i = 0; i < this.getLength(); i += lineLength) {
-			if (i + lineLength < this.getLength()) {
-				sb.append(this.getSeq(), i, i + lineLength).append("\n");
-			} else {
-				sb.append(this.getSeq().substring(i)).append("\n");
-			}
-		}
-		return sb.toString();
+		return seq.fastaFormat();
 	}
 
 }
\ No newline at end of file
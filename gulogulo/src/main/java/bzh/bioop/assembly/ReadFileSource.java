@@ -0,0 +1,270 @@
+package bzh.bioop.assembly;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads of a FASTA, FASTQ or one-read-per-line file, possibly gzipped.
+ *
+ * Uncompressed files are memory-mapped by regions, compressed files are
+ * read through a buffer. The bytes of the sequences are packed directly in
+ * the reads, without building a String per line. Soft-masked (lowercase)
+ * bases are loaded in uppercase, so only the characters other than A, C,
+ * G and T, such as N and the IUPAC codes, are exceptions of the reads.
+ */
+public class ReadFileSource implements ReadSource {
+
+	private enum Format {
+		LINES, FASTA, FASTQ
+	}
+
+	private final FileChannel channel;
+	private final ByteInput in;
+	private final Format format;
+
+	/**
+	 * Open a file of reads
+	 * @param path the path of the file
+	 * @throws IOException
+	 */
+	public ReadFileSource(Path path) throws IOException {
+		channel = FileChannel.open(path, StandardOpenOption.READ);
+		try {
+			if (isGzip(channel)) {
+				in = new StreamInput(new GZIPInputStream(Channels.newInputStream(channel), 1 << 16));
+			} else {
+				in = new MappedInput(channel);
+			}
+			switch (in.peek()) {
+				case '>' -> format = Format.FASTA;
+				case '@' -> format = Format.FASTQ;
+				default -> format = Format.LINES;
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	private static boolean isGzip(FileChannel channel) throws IOException {
+		if (channel.size() < 2) {
+			return false;
+		}
+		MappedByteBuffer head = channel.map(FileChannel.MapMode.READ_ONLY, 0, 2);
+		return (head.get(0) & 0xff) == 0x1f && (head.get(1) & 0xff) == 0x8b;
+	}
+
+	@Override
+	public Read next() throws IOException {
+		return switch (format) {
+			case LINES -> nextLine();
+			case FASTA -> nextFasta();
+			case FASTQ -> nextFastq();
+		};
+	}
+
+	/**
+	 * The base of a byte of a sequence, in uppercase
+	 */
+	private static char base(int b) {
+		return (char) (b >= 'a' && b <= 'z' ? b - ('a' - 'A') : b);
+	}
+
+	/**
+	 * One read per line, like BufferedReader.readLine: every line is a read,
+	 * a last empty line is not
+	 */
+	private Read nextLine() throws IOException {
+		if (in.peek() < 0) {
+			return null;
+		}
+		PackedSequence seq = new PackedSequence(64);
+		int b;
+		while ((b = in.read()) >= 0 && b != '\n') {
+			if (b != '\r') {
+				seq.appendBase(base(b));
+			}
+		}
+		seq.trimToSize();
+		return new Read(seq);
+	}
+
+	/**
+	 * '>' header line, then the sequence on one or more lines
+	 */
+	private Read nextFasta() throws IOException {
+		int b;
+		while ((b = in.read()) >= 0 && b != '>') {
+			// skip blank lines before the header
+		}
+		if (b < 0) {
+			return null;
+		}
+		skipLine();
+		PackedSequence seq = new PackedSequence(64);
+		while ((b = in.peek()) >= 0 && b != '>') {
+			in.read();
+			if (b > ' ') {
+				seq.appendBase(base(b));
+			}
+		}
+		seq.trimToSize();
+		return new Read(seq);
+	}
+
+	/**
+	 * '@' header line, sequence lines, '+' line, then as many quality
+	 * characters as bases (the quality may start with '@')
+	 */
+	private Read nextFastq() throws IOException {
+		int b;
+		while ((b = in.read()) >= 0 && b != '@') {
+			// skip blank lines before the header
+		}
+		if (b < 0) {
+			return null;
+		}
+		skipLine();
+		PackedSequence seq = new PackedSequence(64);
+		while ((b = in.read()) >= 0 && b != '+') {
+			if (b > ' ') {
+				seq.appendBase(base(b));
+			}
+		}
+		if (b < 0) {
+			throw new IOException("truncated FASTQ record, no '+' line");
+		}
+		skipLine();
+		int quality = 0;
+		while (quality < seq.length() && (b = in.read()) >= 0) {
+			if (b > ' ') {
+				quality++;
+			}
+		}
+		skipLine();
+		seq.trimToSize();
+		return new Read(seq);
+	}
+
+	private void skipLine() throws IOException {
+		int b;
+		while ((b = in.read()) >= 0 && b != '\n') {
+			// skip
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+		channel.close();
+	}
+
+	/**
+	 * Bytes of the file, one at a time
+	 */
+	private interface ByteInput {
+		int read() throws IOException;
+
+		int peek() throws IOException;
+
+		void close() throws IOException;
+	}
+
+	/**
+	 * Bytes of an uncompressed file, mapped in memory by regions of 1 GB
+	 */
+	private static final class MappedInput implements ByteInput {
+		private static final long REGION = 1L << 30;
+
+		private final FileChannel channel;
+		private final long size;
+		private long regionStart;
+		private MappedByteBuffer region;
+
+		MappedInput(FileChannel channel) throws IOException {
+			this.channel = channel;
+			this.size = channel.size();
+			this.regionStart = 0;
+			map();
+		}
+
+		private void map() throws IOException {
+			long length = Math.min(REGION, size - regionStart);
+			region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, length);
+		}
+
+		private boolean hasNext() throws IOException {
+			if (region.hasRemaining()) {
+				return true;
+			}
+			if (regionStart + region.capacity() >= size) {
+				return false;
+			}
+			regionStart += region.capacity();
+			map();
+			return region.hasRemaining();
+		}
+
+		@Override
+		public int read() throws IOException {
+			return hasNext() ? region.get() & 0xff : -1;
+		}
+
+		@Override
+		public int peek() throws IOException {
+			return hasNext() ? region.get(region.position()) & 0xff : -1;
+		}
+
+		@Override
+		public void close() {
+			region = null;
+		}
+	}
+
+	/**
+	 * Bytes of a stream, read through a buffer
+	 */
+	private static final class StreamInput implements ByteInput {
+		private final InputStream stream;
+		private final byte[] buffer = new byte[1 << 16];
+		private int pos;
+		private int end;
+
+		StreamInput(InputStream stream) {
+			this.stream = stream;
+		}
+
+		private boolean hasNext() throws IOException {
+			while (pos == end) {
+				end = stream.read(buffer);
+				pos = 0;
+				if (end < 0) {
+					end = 0;
+					return false;
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return hasNext() ? buffer[pos++] & 0xff : -1;
+		}
+
+		@Override
+		public int peek() throws IOException {
+			return hasNext() ? buffer[pos] & 0xff : -1;
+		}
+
+		@Override
+		public void close() throws IOException {
+			stream.close();
+		}
+	}
+}
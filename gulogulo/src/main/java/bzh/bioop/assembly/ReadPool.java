@@ -0,0 +1,149 @@
+package bzh.bioop.assembly;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Pool of the reads to assemble.
+ *
+ * Each read gets a stable integer id, its position in the pool. Reads are
+ * never removed: they are marked as consumed in a bitset, in O(1), and the
+ * iteration on the live reads skips the consumed ones word by word.
+ */
+public class ReadPool {
+
+	private Read[] reads;
+	private int size;
+	private final BitSet live; // bit id is set while the read id is not consumed
+	private int liveCount;
+	private int maxReadLength;
+	private final ReadPool owner; // pool holding the live reads: this, or the forward pool of a reverse pool
+
+	public ReadPool() {
+		reads = new Read[1024];
+		live = new BitSet();
+		owner = this;
+	}
+
+	private ReadPool(ReadPool forward) {
+		reads = new Read[Math.max(1, forward.size)];
+		for (int id = 0; id < forward.size; id++) {
+			reads[id] = forward.reads[id].getReverseComplement();
+		}
+		size = forward.size;
+		live = null;
+		maxReadLength = forward.maxReadLength;
+		owner = forward;
+	}
+
+	/**
+	 * Load all the reads of a source
+	 * @param source the reads to load
+	 * @return the pool of the reads
+	 * @throws IOException
+	 */
+	public static ReadPool load(ReadSource source) throws IOException {
+		ReadPool pool = new ReadPool();
+		Read r;
+		while ((r = source.next()) != null) {
+			pool.add(r);
+		}
+		return pool;
+	}
+
+	/**
+	 * Add a read to the pool
+	 * @param r the read to add
+	 * @return the id of the read
+	 */
+	public int add(Read r) {
+		if (owner != this) {
+			throw new IllegalStateException("reads can not be added to a reverse complement pool");
+		}
+		if (size == reads.length) {
+			reads = Arrays.copyOf(reads, size * 2);
+		}
+		int id = size++;
+		reads[id] = r;
+		live.set(id);
+		liveCount++;
+		maxReadLength = Math.max(maxReadLength, r.getLength());
+		return id;
+	}
+
+	/**
+	 * Mark a read as consumed: it is not a live read anymore
+	 * @param id the id of the read
+	 */
+	public void consume(int id) {
+		if (owner != this) {
+			owner.consume(id);
+		} else if (live.get(id)) {
+			live.clear(id);
+			liveCount--;
+		}
+	}
+
+	/**
+	 * Pool of the reverse complements of the reads, with the same ids. The
+	 * two pools share their live reads: a read consumed in one pool is
+	 * consumed on both strands. The reverse complement of a reverse pool is
+	 * its forward pool.
+	 * @return the pool of the reverse complement reads
+	 */
+	public ReadPool reverseComplement() {
+		return owner == this ? new ReadPool(this) : owner;
+	}
+
+	/**
+	 * Find the first live read from an id, to iterate on the live reads:
+	 * for (int id = pool.nextLive(0); id >= 0; id = pool.nextLive(id + 1))
+	 * @param from the first id to check
+	 * @return the id of the next live read, or -1 if there is none
+	 */
+	public int nextLive(int from) {
+		return owner.live.nextSetBit(from);
+	}
+
+	// --- Getters ---
+
+	public Read get(int id) {
+		return reads[id];
+	}
+
+	public boolean isLive(int id) {
+		return owner.live.get(id);
+	}
+
+	/**
+	 * Accessor for the number of reads, consumed or not
+	 * @return the number of reads
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Accessor for the number of reads that are not consumed
+	 * @return the number of live reads
+	 */
+	public int getLiveCount() {
+		return owner.liveCount;
+	}
+
+	public int getMaxReadLength() {
+		return maxReadLength;
+	}
+
+	/**
+	 * Copy of the consumed reads, for the checkpoints of the assembly
+	 * @return the bitset whose bit id is set if the read id is consumed
+	 */
+	public BitSet getConsumed() {
+		BitSet consumed = new BitSet(size);
+		consumed.set(0, size);
+		consumed.andNot(owner.live);
+		return consumed;
+	}
+}
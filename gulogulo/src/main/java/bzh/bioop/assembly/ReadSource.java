@@ -0,0 +1,31 @@
+package bzh.bioop.assembly;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Interface that represents a source of reads, read one by one so that the
+ * whole input never has to be in memory as text
+ */
+public interface ReadSource extends Closeable {
+
+	/**
+	 * Read the next read of the source
+	 * @return the next read, or null at the end of the source
+	 * @throws IOException
+	 */
+	public Read next() throws IOException;
+
+	/**
+	 * Open a file of reads. The format is detected from its content: FASTA
+	 * (first character '>'), FASTQ ('@') or one read per line, compressed
+	 * with gzip or not.
+	 * @param path the path of the file
+	 * @return the source of the reads of the file
+	 * @throws IOException
+	 */
+	public static ReadSource open(Path path) throws IOException {
+		return new ReadFileSource(path);
+	}
+}
@@ -23,6 +23,12 @@ public interface Sequence {
 	 * @return the sequence as a string
 	 */
 	public abstract String getSeq();
+
+	/**
+	 * Accessor for the packed sequence, to read the bases without building a String
+	 * @return the packed sequence
+	 */
+	public PackedSequence getPacked();
 	
 	/**
 	 * Format the sequence like Fasta, 60 nucleotides max per line
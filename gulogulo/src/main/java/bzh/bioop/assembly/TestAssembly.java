@@ -1,12 +1,13 @@
 package bzh.bioop.assembly;
 
-import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class for Assembly program
@@ -15,16 +16,82 @@ import java.util.List;
  * @throws IOException
  */
 public class TestAssembly {
+    @SuppressWarnings("try") // the phases are only opened and closed
     public static void main(String[] args) throws IOException {
         String USAGE = """
-                       USAGE : java assembly.jar <reads file> [perror]
+                       USAGE : java assembly.jar [options] <reads file> [perror]
                        - reads file : the path of the file containing the reads to assemble
-                       - perror : percentage of errors accepted in the assembling""";
+                         (one read per line, FASTA or FASTQ, optionally gzipped)
+                       - perror : percentage of errors accepted in the assembling
+                       Options :
+                       --threads <n> : number of threads scoring the reads (default 1)
+                       --mode <greedy|graph|dbg> : greedy single contig loop (default), overlap graph
+                         or De Bruijn graph
+                       --kmer <k> : length of the k-mers of the De Bruijn graph (default 21)
+                       --min-count <n> : k-mers seen less than n times are errors (default 2)
+                       --both-strands : greedy mode also merges reverse complement reads and
+                         extends the contig to the left
+                       --correct : correct the reads with their k-mers (--kmer, --min-count) before
+                         the assembly, which is then done with exact overlaps
+                       --index <kmer|fm> : index of the reads of the greedy loop, the FM-index
+                         (exact overlaps only) or the k-mer seeds (default)
+                       --checkpoint <file> : save the state of the greedy loop in file periodically
+                         (greedy mode only)
+                       --checkpoint-interval <s> : seconds between two checkpoints (default 60)
+                       --resume : start the greedy loop from the --checkpoint file, if it exists;
+                         the reads must be the same, a checkpoint of other options is rejected
+                       --progress <s> : seconds between two progress lines on stderr (default 1)
+                       --verbose : print each fusion
+                       --batch <dir> : the reads file is a directory of read files, or a manifest
+                         listing them, assembled with the same options on --threads workers, one
+                         FASTA file per sample in dir; --checkpoint, --resume and --output cannot
+                         be used with it
+                       --gzip : compress the FASTA files of --batch
+                       --output <file> : write the contigs to a FASTA file (gzipped if it ends with
+                         .gz) instead of the standard output""";
         // args = new String[1];
         // args[0] = "data/my_reads.txt";
         //args[0] = "data/short_with_errors02then04.txt";
         
-        if (args.length < 1) {
+        // Options first, the remaining arguments are the reads file and perror
+        int threads = 1;
+        String mode = "greedy";
+        int kmer = 21;
+        int minCount = 2;
+        boolean bothStrands = false;
+        boolean correct = false;
+        String indexType = "kmer";
+        int progressSeconds = 1;
+        Path checkpoint = null;
+        int checkpointSeconds = 60;
+        boolean resume = false;
+        boolean verbose = false;
+        String batch = null;
+        boolean gzip = false;
+        Path output = null;
+        List<String> params = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--threads" -> threads = Integer.parseInt(args[++i]);
+                case "--mode" -> mode = args[++i];
+                case "--kmer" -> kmer = Integer.parseInt(args[++i]);
+                case "--min-count" -> minCount = Integer.parseInt(args[++i]);
+                case "--both-strands" -> bothStrands = true;
+                case "--correct" -> correct = true;
+                case "--index" -> indexType = args[++i];
+                case "--checkpoint" -> checkpoint = Paths.get(args[++i]);
+                case "--checkpoint-interval" -> checkpointSeconds = Integer.parseInt(args[++i]);
+                case "--resume" -> resume = true;
+                case "--progress" -> progressSeconds = Integer.parseInt(args[++i]);
+                case "--verbose" -> verbose = true;
+                case "--batch" -> batch = args[++i];
+                case "--gzip" -> gzip = true;
+                case "--output" -> output = Paths.get(args[++i]);
+                default -> params.add(args[i]);
+            }
+        }
+
+        if (params.size() < 1) {
             String art = " \u001B[32m.-./`)\u001B[0m  _______  \u001B[32m.-./`)\u001B[0m    .-'''-.    ____      \n" +
 				" \u001B[32m\\ .-.')\u001B[0m\\  _____\\ \u001B[32m\\ .-.')\u001B[0m  / _     \\ .'  __ `.   \n" +
 				" \u001B[32m/ `-' \\\u001B[0m| |    \\ |\u001B[32m/ `-' \\\u001B[0m \u001B[32m(`' )\u001B[0m/`--'/   '  \\  \\  \n" +
@@ -45,43 +112,170 @@ public class TestAssembly {
             System.exit(1);
         }
 
-        String readfile = args[0];
+        String readfile = params.get(0);
 
         float perror = (float)0;
-        if (args.length > 1) {
-            perror = Float.valueOf(args[1]);
+        if (params.size() > 1) {
+            perror = Float.valueOf(params.get(1));
         }
 
         Path filepath = Paths.get(readfile);
 
-        List<Read> list_reads = new LinkedList<>();
-        try (BufferedReader br = new BufferedReader(new FileReader(filepath.toAbsolutePath().toString()))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                Read r1 = new Read(line);
-                list_reads.add(r1);
+        // Counters and phase times, on JMX, JFR and in a summary line on stderr
+        AssemblyMetrics metrics = AssemblyMetrics.get();
+        metrics.registerMBean();
+        metrics.setReportInterval(progressSeconds, TimeUnit.SECONDS);
+
+        if (batch != null) {
+            // Many samples in this JVM, the threads assemble different samples
+            if (checkpoint != null || resume || output != null) {
+                System.err.println("--checkpoint, --resume and --output cannot be used with --batch\n" + USAGE);
+                System.exit(1);
+            }
+            BatchAssembly batchAssembly = new BatchAssembly(Paths.get(batch), threads, perror);
+            batchAssembly.setGzip(gzip);
+            batchAssembly.setReportInterval(progressSeconds, TimeUnit.SECONDS);
+            batchAssembly.setCorrect(correct);
+            batchAssembly.setKmers(kmer, minCount);
+            batchAssembly.setBothStrands(bothStrands);
+            batchAssembly.setFmIndex(indexType.equals("fm"));
+            batchAssembly.setVerbose(verbose);
+            List<Path> samples = BatchAssembly.samples(filepath);
+            int failures;
+            try {
+                batchAssembly.setMode(mode);
+                failures = batchAssembly.run(samples);
+            } catch (IllegalArgumentException e) {
+                System.err.println(e.getMessage() + "\n" + USAGE);
+                System.exit(1);
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            System.out.println((samples.size() - failures) + " samples assembled, " + failures + " failed");
+            if (failures > 0) {
+                System.exit(2);
+            }
+            return;
+        }
+
+        if ((checkpoint != null || resume) && !mode.equals("greedy")) {
+            System.err.println("--checkpoint and --resume only apply to the greedy mode\n" + USAGE);
+            System.exit(1);
+        }
+
+        ReadPool pool;
+        try (AssemblyMetrics.Phase phase = metrics.phase("load");
+                ReadSource source = ReadSource.open(filepath.toAbsolutePath())) {
+            pool = ReadPool.load(source);
+        }
+
+        if (correct) {
+            // the errors are corrected once here, the overlaps are then exact
+            try (AssemblyMetrics.Phase phase = metrics.phase("correct")) {
+                KmerCorrector corrector = new KmerCorrector(kmer, minCount, 10);
+                pool = corrector.correct(pool);
+                System.out.println(corrector.getCorrectedBases() + " bases corrected in "
+                        + corrector.getCorrectedReads() + " reads");
+            }
+            perror = 0;
+        }
+
+        if (mode.equals("dbg")) {
+            // Unitigs of the De Bruijn graph of the solid k-mers
+            List<Contig> contigs;
+            try (AssemblyMetrics.Phase phase = metrics.phase("assembly")) {
+                contigs = new DeBruijnAssembler(pool, kmer, minCount).assemble();
             }
+            System.out.println(contigs.size() + " contigs obtained");
+            if (output != null) {
+                writeFasta(output, contigs);
+            } else {
+                for (Contig c : contigs) {
+                    System.out.println("Contig of " + c.getLength() + " bases");
+                    System.out.println(c.fastaFormat());
+                }
+            }
+            metrics.printPhases();
+            return;
         }
 
-        // Create a Contig with the first sequence of the list
-        Contig contig = new Contig(list_reads.get(0));
-        list_reads.remove(0);
+        // Index the reads so that each step only compares the contig with the reads sharing a seed
+        KmerIndex index;
+        try (AssemblyMetrics.Phase phase = metrics.phase("index")) {
+            index = new KmerIndex(pool);
+        }
 
-        // Greedy loop
-        while (true) { // loop while still reads with overlap > 8 to assemble
-            int index = contig.nextReadWithError((LinkedList<Read>) list_reads, perror); // find the index of read with
-                                                                                         // best overlap in the list
-            if (index == -1) {
-                break; // if no read whre overlap > 8
+        if (mode.equals("graph")) {
+            // All the overlaps at once, one contig per unitig of the overlap graph
+            List<Contig> contigs;
+            try (AssemblyMetrics.Phase phase = metrics.phase("assembly")) {
+                OverlapGraphAssembler graph;
+                try {
+                    graph = new OverlapGraphAssembler(index, perror);
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage() + "\n" + USAGE);
+                    System.exit(1);
+                    return;
+                }
+                contigs = graph.assemble();
             }
-            // remove the best read from the list
-            Read chosen = list_reads.remove(index);
-            System.out.println("Fusion with " + index + ", still " + (list_reads.size())
-                    + " reads to assemble... work in process");
-            // fusion the contig (first line) with the chosen read
-            contig = contig.fusion(chosen);
+            System.out.println(contigs.size() + " contigs obtained");
+            if (output != null) {
+                writeFasta(output, contigs);
+            } else {
+                for (Contig c : contigs) {
+                    System.out.println("Contig obtained with " + c.getReadsCount() + " reads");
+                    System.out.println(c.fastaFormat());
+                }
+            }
+            metrics.printPhases();
+            return;
+        }
+
+        // Greedy loop, reads are scored in parallel when they all have to be scanned
+        ForkJoinPool executor = threads > 1 ? new ForkJoinPool(threads) : null;
+        GreedyAssembler assembler = new GreedyAssembler(index, perror);
+        assembler.setExecutor(executor);
+        assembler.setBothStrands(bothStrands);
+        assembler.setFmIndex(indexType.equals("fm"));
+        assembler.setVerbose(verbose);
+        if (resume && checkpoint != null && Files.exists(checkpoint)) {
+            Checkpoint state = Checkpoint.read(checkpoint, assembler.getOptions());
+            assembler.setResume(state);
+            System.out.println("Resumed from " + checkpoint + ": contig of " + state.contig().length()
+                    + " bases with " + state.nbFusions() + " reads");
+        }
+        Contig contig;
+        if (checkpoint != null) {
+            try (CheckpointWriter writer = new CheckpointWriter(checkpoint, checkpointSeconds, TimeUnit.SECONDS)) {
+                assembler.setCheckpoints(writer);
+                contig = assembler.assemble();
+            }
+        } else {
+            contig = assembler.assemble();
+        }
+        if (executor != null) {
+            executor.shutdown();
         }
         System.out.println("Contig obtained with " + contig.getReadsCount() + " reads");
-        System.out.println(contig.fastaFormat());
+        if (output != null) {
+            writeFasta(output, List.of(contig));
+        } else {
+            System.out.println(contig.fastaFormat());
+        }
+        metrics.printPhases();
+    }
+
+    /**
+     * Write contigs to a FASTA file, named contig_1, contig_2...
+     */
+    private static void writeFasta(Path output, List<Contig> contigs) throws IOException {
+        try (FastaWriter writer = FastaWriter.open(output)) {
+            for (int i = 0; i < contigs.size(); i++) {
+                writer.write("contig_" + (i + 1), contigs.get(i));
+            }
+        }
     }
 }
@@ -0,0 +1,56 @@
+package bzh.bioop.polio;
+
+/**
+ * The population of the city at a step of the simulation.
+ *
+ * Carriers and vaccinated people are also counted in their health state.
+ *
+ * @param healthy   the number of healthy people
+ * @param sick      the number of sick people
+ * @param cured     the number of cured people
+ * @param dead      the number of dead people
+ * @param carriers  the number of people carrying polio without being sick
+ * @param vaccinated the number of vaccinated people, dead or alive
+ *
+ * @author Vincent & Gwendoline
+ */
+public record Census(int healthy, int sick, int cured, int dead, int carriers, int vaccinated) {
+
+    static final int CARRIERS = 4; // index of the carriers in the counters, after the states
+    static final int VACCINATED = 5;
+    static final int SIZE = 6;
+
+    /**
+     * Count a cell in counters indexed by the states, then CARRIERS and VACCINATED
+     * @param counts the counters
+     * @param cell the cell, nothing is counted if the case is empty
+     * @param delta 1 to add the person, -1 to remove it
+     */
+    static void count(int[] counts, int cell, int delta) {
+        if (!CityGrid.isOccupied(cell)) {
+            return;
+        }
+        counts[CityGrid.state(cell)] += delta;
+        if ((cell & CityGrid.CARRIER) != 0) {
+            counts[CARRIERS] += delta;
+        }
+        if ((cell & CityGrid.VAX) != 0) {
+            counts[VACCINATED] += delta;
+        }
+    }
+
+    /**
+     * Build the census of counters filled by count
+     */
+    static Census of(int[] counts) {
+        return new Census(counts[CityGrid.HEALTHY], counts[CityGrid.SICK], counts[CityGrid.CURED],
+                counts[CityGrid.DEAD], counts[CARRIERS], counts[VACCINATED]);
+    }
+
+    /**
+     * The number of people alive
+     */
+    public int alive() {
+        return healthy + sick + cured;
+    }
+}
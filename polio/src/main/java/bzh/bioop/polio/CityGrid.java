@@ -0,0 +1,162 @@
+package bzh.bioop.polio;
+
+import java.util.Arrays;
+
+/**
+ * The cells of the city, one byte per cell in two buffers.
+ *
+ * The front buffer is the current state of the city, the back buffer
+ * receives the next state during a step; the buffers are then swapped, so
+ * a step allocates nothing. The cell (i, j) is the byte i * dim + j:
+ *
+ * - bits 0-1 : the ordinal of the Person.State
+ * - bit 2 : the case is occupied
+ * - bit 3 : the person is vaccinated
+ * - bit 4 : the person is a carrier
+ * - bit 5 : the person is patient zero
+ *
+ * An empty case is 0. Person objects are only built as views of the cells.
+ *
+ * @author Vincent & Gwendoline
+ */
+public class CityGrid {
+
+    static final int STATE = 0b11;
+    static final int OCCUPIED = 1 << 2;
+    static final int VAX = 1 << 3;
+    static final int CARRIER = 1 << 4;
+    static final int PATIENT_ZERO = 1 << 5;
+
+    static final int HEALTHY = Person.State.HEALTHY.ordinal();
+    static final int SICK = Person.State.SICK.ordinal();
+    static final int CURED = Person.State.CURED.ordinal();
+    static final int DEAD = Person.State.DEAD.ordinal();
+
+    private static final Person.State[] STATES = Person.State.values();
+
+    private final int dim;
+    private byte[] front; // current state
+    private byte[] back; // next state, being computed
+
+    /**
+     * Create an empty city
+     * @param dim Length of a side of the square representing the city
+     */
+    public CityGrid(int dim) {
+        this.dim = dim;
+        this.front = new byte[dim * dim];
+        this.back = new byte[dim * dim];
+    }
+
+    /**
+     * Build the cell of a person
+     * @param state the health state
+     * @param vaccinated true if the person is vaccinated
+     * @return the cell
+     */
+    static int person(int state, boolean vaccinated) {
+        return OCCUPIED | state | (vaccinated ? VAX : 0);
+    }
+
+    static boolean isOccupied(int cell) {
+        return (cell & OCCUPIED) != 0;
+    }
+
+    static int state(int cell) {
+        return cell & STATE;
+    }
+
+    /**
+     * Change the state of a cell, the flags are kept
+     */
+    static int withState(int cell, int state) {
+        return (cell & ~STATE) | state;
+    }
+
+    // Current state
+
+    /**
+     * Get the current cell (i, j)
+     * @param i The x position in the city
+     * @param j The y position in the city
+     * @return the cell, 0 if the case is empty
+     */
+    public int get(int i, int j) {
+        return front[i * dim + j];
+    }
+
+    /**
+     * Change the current cell (i, j)
+     * @param i The x position in the city
+     * @param j The y position in the city
+     * @param cell the new cell, 0 to empty the case
+     */
+    public void set(int i, int j, int cell) {
+        front[i * dim + j] = (byte) cell;
+    }
+
+    // Next state
+
+    /**
+     * Get the cell (i, j) of the next state, as computed so far
+     * @param i The x position in the city
+     * @param j The y position in the city
+     * @return the cell, 0 if the case is empty
+     */
+    public int getNext(int i, int j) {
+        return back[i * dim + j];
+    }
+
+    /**
+     * Write the cell (i, j) of the next state
+     * @param i The x position in the city
+     * @param j The y position in the city
+     * @param cell the cell
+     */
+    public void setNext(int i, int j, int cell) {
+        back[i * dim + j] = (byte) cell;
+    }
+
+    /**
+     * Start a step: the next state is an empty city
+     */
+    public void clearNext() {
+        Arrays.fill(back, (byte) 0);
+    }
+
+    /**
+     * End a step: the next state becomes the current state
+     */
+    public void swap() {
+        byte[] tmp = front;
+        front = back;
+        back = tmp;
+    }
+
+    // Views
+
+    /**
+     * Build a Person from the current cell (i, j)
+     * @param i The x position in the city
+     * @param j The y position in the city
+     * @return the person, or null if the case is empty
+     */
+    public Person view(int i, int j) {
+        int cell = get(i, j);
+        if (!isOccupied(cell)) {
+            return null;
+        }
+        Person p = new Person(STATES[state(cell)], (cell & VAX) != 0, i, j);
+        p.setCarrier((cell & CARRIER) != 0);
+        p.setPatientZero((cell & PATIENT_ZERO) != 0);
+        return p;
+    }
+
+    /**
+     * Getter for the city size
+     * @return the size of a city's side
+     */
+    public int getDim() {
+        return dim;
+    }
+}
@@ -5,6 +5,9 @@ package bzh.bioop.polio;
  * 
  * Possible states : HEALTHY, SICK, CURED, DEAD
  * 
+ * The simulation keeps the persons in the cells of a CityGrid: Person
+ * objects are views of these cells, built for the display.
+ * 
  * @author Vincent & Gwendoline
  */
 public class Person {
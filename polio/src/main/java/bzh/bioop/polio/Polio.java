@@ -1,9 +1,36 @@
 package bzh.bioop.polio;
 
-import java.util.Random;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.random.RandomGenerator;
 
 /**
- * Polio epidemic simulation in a city represented by a matrix of Person.
+ * Polio epidemic simulation in a city represented by a grid of cells.
+ * 
+ * The city is a CityGrid: each step computes the next state of every cell
+ * into its back buffer, then swaps the buffers. Person objects are only
+ * built by getMatrix, for the display.
+ * 
+ * A step is computed by bands of BAND_ROWS rows, in parallel when a number
+ * of threads is set. Each band draws from its own random stream, split
+ * from the stream of the step in the order of the bands (see
+ * SimulationRandom), and the moves of the people are applied after the
+ * bands in row-major order: for a given seed, the simulation is the same
+ * whatever the number of threads. The threads are stopped by close.
+ * 
+ * When nobody moves, only the infectious people (sick or carriers) and
+ * the healthy people they expose can change: the step only computes these
+ * cells, found from the list of the infectious cells, and gives the same
+ * city as a step over all the cells.
+ * 
+ * The people are counted by state when the city is created, then the
+ * counters are updated with the changes of each step (by band when the
+ * bands run in parallel): the end of the simulation is checked without
+ * reading the grid, and the census of each step is kept in getHistory.
  * 
  * Possible states : HEALTHY, SICK, CURED, DEAD
  * Vaccinated persons have reduced probability of infection. Cured persons
@@ -11,9 +38,23 @@ import java.util.Random;
  * 
  * @author Vincent & Gwendoline
  */
-public class Polio {
-
-    private Person[][] matrix;
+public final class Polio implements AutoCloseable {
+
+    // Represents the shifts from a case to its neighbors
+    private static final int[][] NEIGHBORS = {
+            { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 },
+            { -1, -1 }, { -1, 1 }, { 1, -1 }, { 1, 1 }
+    };
+
+    private static final int BAND_ROWS = 16; // rows of a band, computed with one random stream
+
+    private CityGrid grid;
+    private final SimulationRandom random; // every random number of the simulation
+    private ForkJoinPool executor; // computes the bands in parallel, null to compute them in this thread
+    private int[] infectious; // indexes i * dim + j of the infectious cells, null to find them in the grid
+    private int nbInfectious;
+    private final int[] counts = new int[Census.SIZE]; // the people of the current state, see Census.count
+    private final List<Census> history = new ArrayList<>(); // census after each step, the first one before any step
     private int dim;
     private double pDeath; // death probability when sick
     private double pSpread; // spread probability
@@ -33,22 +74,60 @@ public class Polio {
      * @param moveProbability   Probability for people to move at each turn
      * @param clusters          True if the city is mostly populated with clusters
      *                          of people
+     * @param seed              Seed of the simulation, the same seed gives the
+     *                          same simulation
+     * @throws Exception
+     */
+    public Polio(int citySize, double density, double deathProbability, double spreadProbability,
+            double p_vax, double vaxPolioProb, double moveProbability, boolean clusters, long seed)
+            throws Exception {
+        this(citySize, density, deathProbability, spreadProbability, p_vax, vaxPolioProb, moveProbability,
+                clusters, new SimulationRandom(seed));
+    }
+
+    /**
+     * Create a simulation with a random seed, given by getSeed
+     * 
+     * @param citySize          Length of a side of the square representing the
+     *                          city
+     * @param density           Wanted density of people in the city, between 0 and 1
+     * @param deathProbability  Death probability when sick
+     * @param spreadProbability Spread probability when sick
+     * @param p_vax             Vaccine coverage, as a probability to be vaccinated
+     * @param vaxPolioProb      Probability a vaccinated person still catches polio
+     * @param moveProbability   Probability for people to move at each turn
+     * @param clusters          True if the city is mostly populated with clusters
+     *                          of people
      * @throws Exception
      */
     public Polio(int citySize, double density, double deathProbability, double spreadProbability,
             double p_vax, double vaxPolioProb, double moveProbability, boolean clusters)
             throws Exception {
+        this(citySize, density, deathProbability, spreadProbability, p_vax, vaxPolioProb, moveProbability,
+                clusters, new SimulationRandom());
+    }
+
+    private Polio(int citySize, double density, double deathProbability, double spreadProbability,
+            double p_vax, double vaxPolioProb, double moveProbability, boolean clusters, SimulationRandom random)
+            throws Exception {
         // Create random map of dim citySize, with density, death probability when sick,
         // spread probability and vaccine coverage
         if (citySize < 10) {
             throw new Exception("city size must be >= 10");
         }
+        this.random = random;
         if (clusters) {
-            matrix = initMatrixWithClusters(citySize, density, p_vax);
+            grid = initMatrixWithClusters(citySize, density, p_vax);
         } else {
-            matrix = initMatrixWithoutClusters(citySize, density, p_vax);
+            grid = initMatrixWithoutClusters(citySize, density, p_vax);
         }
         dim = citySize;
+        for (int i = 0; i < citySize; i++) {
+            for (int j = 0; j < citySize; j++) {
+                Census.count(counts, grid.get(i, j), 1);
+            }
+        }
+        history.add(Census.of(counts));
         pDeath = deathProbability;
         pSpread = spreadProbability;
         pVaxPolio = vaxPolioProb;
@@ -87,9 +166,9 @@ public class Polio {
      * @param p_vax    Vaccine coverage, as a probability to be vaccinated
      * @return the initialized city map
      */
-    private Person[][] initMatrixWithClusters(int citySize, double density, double p_vax) {
-        Random rand = new Random();
-        Person[][] l_matrix = new Person[citySize][citySize];
+    private CityGrid initMatrixWithClusters(int citySize, double density, double p_vax) {
+        RandomGenerator rand = random.city();
+        CityGrid l_matrix = new CityGrid(citySize);
         int totalPop = (int) Math.round(citySize * citySize * density);
 
         // First, place a few people randomly in the city
@@ -98,13 +177,9 @@ public class Polio {
         for (int p = 0; p < randomPeople; p++) {
             int x = rand.nextInt(citySize);
             int y = rand.nextInt(citySize);
-            if (l_matrix[x][y] == null) {
+            if (!CityGrid.isOccupied(l_matrix.get(x, y))) {
                 float v = rand.nextFloat();
-                if (v < p_vax) {
-                    l_matrix[x][y] = new Person(Person.State.HEALTHY, true, x, y);
-                } else {
-                    l_matrix[x][y] = new Person(Person.State.HEALTHY, false, x, y);
-                }
+                l_matrix.set(x, y, CityGrid.person(CityGrid.HEALTHY, v < p_vax));
             }
         }
 
@@ -112,18 +187,14 @@ public class Polio {
         for (int i = 0; i < citySize; i++) {
             for (int j = 0; j < citySize; j++) {
                 float d = rand.nextFloat();
-                if (hasNeighbor(i, j)) { // Increase the probability to place a person
+                if (hasNeighbor(i, j)) { // Increase the probability to place a person (dim is still 0 here)
                     d = d / 10;
                 }
                 float v = rand.nextFloat();
                 if (d < (density - 0.1)) { // We have already placed 10% of the population
-                    if (v < p_vax) {
-                        l_matrix[i][j] = new Person(Person.State.HEALTHY, true, i, j);
-                    } else {
-                        l_matrix[i][j] = new Person(Person.State.HEALTHY, false, i, j);
-                    }
+                    l_matrix.set(i, j, CityGrid.person(CityGrid.HEALTHY, v < p_vax));
                 } else {
-                    l_matrix[i][j] = null;
+                    l_matrix.set(i, j, 0);
                 }
             }
         }
@@ -139,21 +210,17 @@ public class Polio {
      * @param p_vax    Vaccine coverage, as a probability to be vaccinated
      * @return the initialized city map
      */
-    private Person[][] initMatrixWithoutClusters(int citySize, double density, double p_vax) {
-        Random rand = new Random();
-        Person[][] l_matrix = new Person[citySize][citySize];
+    private CityGrid initMatrixWithoutClusters(int citySize, double density, double p_vax) {
+        RandomGenerator rand = random.city();
+        CityGrid l_matrix = new CityGrid(citySize);
         for (int i = 0; i < citySize; i++) {
             for (int j = 0; j < citySize; j++) {
                 float d = rand.nextFloat();
                 float v = rand.nextFloat();
                 if (d < density) {
-                    if (v < p_vax) {
-                        l_matrix[i][j] = new Person(Person.State.HEALTHY, true, i, j);
-                    } else {
-                        l_matrix[i][j] = new Person(Person.State.HEALTHY, false, i, j);
-                    }
+                    l_matrix.set(i, j, CityGrid.person(CityGrid.HEALTHY, v < p_vax));
                 } else {
-                    l_matrix[i][j] = null;
+                    l_matrix.set(i, j, 0);
                 }
             }
         }
@@ -166,19 +233,7 @@ public class Polio {
      * @return false if at least one person is alive, else true
      */
     public boolean isEndOfTheWorld() {
-        int n = this.getDim();
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                Person p = this.matrix[i][j];
-                if (p != null) {
-                    if (p.getCurrentState() == Person.State.HEALTHY || p.getCurrentState() == Person.State.SICK
-                            || p.getCurrentState() == Person.State.CURED) {
-                        return false;
-                    }
-                }
-            }
-        }
-        return true;
+        return counts[CityGrid.HEALTHY] + counts[CityGrid.SICK] + counts[CityGrid.CURED] == 0;
     }
 
     /**
@@ -187,16 +242,7 @@ public class Polio {
      * @return true is at least one person is sick, else false
      */
     public boolean isOneSick() {
-        int n = getDim();
-        for (int i = 0; i < n; i++) {
-            for (int j = 0; j < n; j++) {
-                Person p = this.matrix[i][j];
-                if (p != null && p.getCurrentState() == Person.State.SICK) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return counts[CityGrid.SICK] > 0;
     }
 
     /**
@@ -206,26 +252,24 @@ public class Polio {
      * @param j The y position in the city
      */
     public void infect(int i, int j) {
-        Person p = this.matrix[i][j];
-        if (p != null) {
-            if (p.isVax()) {
-                Random rand = new Random();
+        infectious = null; // the frontier is found again at the next step
+        int cell = this.grid.get(i, j);
+        if (CityGrid.isOccupied(cell)) {
+            if ((cell & CityGrid.VAX) != 0) {
+                RandomGenerator rand = random.infections();
                 // vaccinated people may become carriers
-                if (!p.isCarrier() && rand.nextDouble() < this.getpVaxPolio()) {
-                    p.setCarrier(true);
-                    p.setPatientZero(true);
-                    System.out.println("Carrier at position : " + p.getPos_i() + " ; " + p.getPos_j());
+                if ((cell & CityGrid.CARRIER) == 0 && rand.nextDouble() < this.getpVaxPolio()) {
+                    setCell(i, j, cell | CityGrid.CARRIER | CityGrid.PATIENT_ZERO);
+                    System.out.println("Carrier at position : " + i + " ; " + j);
                 }
                 // vaccinated people may become sick with a reduced probability
                 else if (rand.nextDouble() < this.getpSpread() * 0.05) {
-                    p.setCurrentState(Person.State.SICK);
-                    p.setPatientZero(true);
-                    System.out.println("Infected vax at position : " + p.getPos_i() + " ; " + p.getPos_j());
+                    setCell(i, j, CityGrid.withState(cell, CityGrid.SICK) | CityGrid.PATIENT_ZERO);
+                    System.out.println("Infected vax at position : " + i + " ; " + j);
                 }
             } else { // Not vaccinated, always get sick
-                p.setCurrentState(Person.State.SICK);
-                p.setPatientZero(true);
-            System.out.println("Infected at position : " + p.getPos_i() + " ; " + p.getPos_j());
+                setCell(i, j, CityGrid.withState(cell, CityGrid.SICK) | CityGrid.PATIENT_ZERO);
+            System.out.println("Infected at position : " + i + " ; " + j);
             }
         }
     }
@@ -234,12 +278,12 @@ public class Polio {
      * Infect a person at a random position. Nothing happen if the case is empty.
      */
     public void infect() {
-        Random rand = new Random();
+        RandomGenerator rand = random.infections();
         int i, j;
         do {
             i = rand.nextInt(this.getDim());
             j = rand.nextInt(this.getDim());
-        } while (this.matrix[i][j] == null);
+        } while (!CityGrid.isOccupied(this.grid.get(i, j)));
         infect(i, j);
     }
 
@@ -253,19 +297,12 @@ public class Polio {
     public boolean hasNeighbor(int i, int j) {
         int n = this.getDim();
 
-        // Represents the shifts from the given case
-        int[][] neighbors = {
-                { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 },
-                { -1, -1 }, { -1, 1 }, { 1, -1 }, { 1, 1 }
-        };
-
-        //for (int[] nb : neighbors) {
-        for (int nb = 0; nb < neighbors.length - 1 ; nb++) {
-            int ni = i + neighbors[nb][0];
-            int nj = j + neighbors[nb][1];
+        //for (int[] nb : NEIGHBORS) {
+        for (int nb = 0; nb < NEIGHBORS.length - 1 ; nb++) {
+            int ni = i + NEIGHBORS[nb][0];
+            int nj = j + NEIGHBORS[nb][1];
             if (ni >= 0 && ni < n && nj >= 0 && nj < n) {
-                Person p = matrix[ni][nj];
-                if (p != null) {
+                if (CityGrid.isOccupied(grid.get(ni, nj))) {
                     return true;
                 }
             }
@@ -284,19 +321,13 @@ public class Polio {
     private boolean hasNeighborInfectious(int i, int j) {
         int n = this.getDim();
 
-        // Represents the shifts from the given case
-        int[][] neighbors = {
-                { -1, 0 }, { 1, 0 }, { 0, -1 }, { 0, 1 },
-                { -1, -1 }, { -1, 1 }, { 1, -1 }, { 1, 1 }
-        };
-
-        for (int nb = 0; nb < neighbors.length - 1 ; nb++) {
-            int ni = i + neighbors[nb][0];
-            int nj = j + neighbors[nb][1];
+        for (int nb = 0; nb < NEIGHBORS.length - 1 ; nb++) {
+            int ni = i + NEIGHBORS[nb][0];
+            int nj = j + NEIGHBORS[nb][1];
             if (ni >= 0 && ni < n && nj >= 0 && nj < n) {
-                Person p = matrix[ni][nj];
-                if (p != null &&
-                        (p.getCurrentState() == Person.State.SICK || p.isCarrier())) {
+                int cell = grid.get(ni, nj);
+                if (CityGrid.isOccupied(cell) &&
+                        (CityGrid.state(cell) == CityGrid.SICK || (cell & CityGrid.CARRIER) != 0)) {
                     return true;
                 }
             }
@@ -314,7 +345,7 @@ public class Polio {
         int n = this.getDim();
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < n; j++) {
-                if (this.matrix[i][j] == null) {
+                if (!CityGrid.isOccupied(this.grid.get(i, j))) {
                     int coords[] = new int[2];
                     coords[0] = i;
                     coords[1] = j;
@@ -328,21 +359,22 @@ public class Polio {
     /**
      * Find an empty case in the city when exploring it randomly
      * 
+     * @param rand The random generator of the exploration
      * @return The coordinates (x,y) of an empty case found, or null if no case is
      *         empty (or the function made too much random moves)
      */
-    private int[] findEmptyCase(boolean randomExploration) {
+    private int[] findEmptyCase(boolean randomExploration, RandomGenerator rand) {
         if (!randomExploration)
             return findEmptyCase();
 
-        Random rand = new Random();
         int n = this.getDim();
         int maxTries = n * n * 2; // Limit the random exploration, so the function can end.
         int cpt = 0;
         while (cpt < maxTries) {
             int i = rand.nextInt(n);
             int j = rand.nextInt(n);
-            if (this.matrix[i][j] == null) {
+            cpt++;
+            if (!CityGrid.isOccupied(this.grid.get(i, j))) {
                 int coords[] = new int[2];
                 coords[0] = i;
                 coords[1] = j;
@@ -353,86 +385,303 @@ public class Polio {
     }
 
     /**
-     * Compute the next state of a case and write the result into new_matrix.
-     * Does NOT modify this.matrix (the current state).
+     * Compute the next state of a case and write the result into the back
+     * buffer of the grid. Does NOT modify the current state.
+     * As with the copy of a Person, the carrier flag is not kept: a
+     * vaccinated person is infectious during one step.
+     * A person who moves is only recorded in the band, the moves are
+     * applied once all the bands are computed.
      * @param i The x position in the city
      * @param j The y position in the city
-     * @param new_matrix The matrix to fill with the next-state persons
+     * @param band The band of the case, with its random generator
      */
-    private void nextState(int i, int j, Person[][] new_matrix) {
-        Person p = matrix[i][j];
-        Random rand = new Random();
-        if (p == null) {
-            // nothing to do: leave new_matrix[i][j] as null
+    private void nextState(int i, int j, Band band) {
+        RandomGenerator rand = band.rand;
+        int cell = grid.get(i, j);
+        if (!CityGrid.isOccupied(cell)) {
+            // nothing to do: leave the next cell empty
             return;
         }
 
-        Person new_p = new Person(p);
+        int next = nextHealth(i, j, cell, rand);
+
+        // People move at the end of the turn
+        if (CityGrid.state(next) != CityGrid.DEAD && this.getpMove() > 0) {
+            double x = rand.nextDouble();
+            if (x < this.getpMove()) {
+                int coords[] = findEmptyCase(true, rand); // finds empty based on the current state
+                if (coords != null) {
+                    // place person in destination once the step is computed, and count it then
+                    band.addMove(coords[0], coords[1], next);
+                    return; // original cell will be left empty
+                }
+            }
+        }
+
+        // If not moved, keep person in the same case
+        grid.setNext(i, j, next);
+        Census.count(band.counts, next, 1);
+    }
+
+    /**
+     * Compute the next health of the person of an occupied case, from the
+     * current state. Random numbers are only drawn for the infectious people
+     * and the healthy people with an infectious neighbor.
+     * @param i The x position in the city
+     * @param j The y position in the city
+     * @param cell The current cell (i, j)
+     * @param rand The random generator of the band of the case
+     * @return the next cell, without the carrier flag unless the person becomes a carrier
+     */
+    private int nextHealth(int i, int j, int cell, RandomGenerator rand) {
+        int next = cell & ~CityGrid.CARRIER;
 
         // if healthy and has an infectious neighbor -> may become sick
-        if (p.getCurrentState() == Person.State.HEALTHY && this.hasNeighborInfectious(i, j)) {
-            if (p.isVax()) {
+        if (CityGrid.state(cell) == CityGrid.HEALTHY && this.hasNeighborInfectious(i, j)) {
+            if ((cell & CityGrid.VAX) != 0) {
                 // vaccinated people may become carriers
-                if (!p.isCarrier() && rand.nextDouble() < this.getpVaxPolio()) {
-                    new_p.setCarrier(true);
+                if ((cell & CityGrid.CARRIER) == 0 && rand.nextDouble() < this.getpVaxPolio()) {
+                    next |= CityGrid.CARRIER;
                 }
                 // vaccinated people may become sick with a reduced probability
                 else if (rand.nextDouble() < this.getpSpread() * 0.05) {
-                    new_p.setCurrentState(Person.State.SICK);
+                    next = CityGrid.withState(next, CityGrid.SICK);
                 }
             } else {
                 if (rand.nextDouble() < this.getpSpread()) {
-                    new_p.setCurrentState(Person.State.SICK);
+                    next = CityGrid.withState(next, CityGrid.SICK);
                 }
             }
         }
         // if sick -> either die or get cured
-        else if (p.getCurrentState() == Person.State.SICK) {
+        else if (CityGrid.state(cell) == CityGrid.SICK) {
             double x = rand.nextDouble();
             if (x < this.getpDeath()) { // Die
-                new_p.setCurrentState(Person.State.DEAD);
+                next = CityGrid.withState(next, CityGrid.DEAD);
             } else { // Get cured
-                new_p.setCurrentState(Person.State.CURED);
+                next = CityGrid.withState(next, CityGrid.CURED);
             }
         }
+        return next;
+    }
 
-        // People move at the end of the turn
-        if (new_p.getCurrentState() != Person.State.DEAD && this.getpMove() > 0) {
-            double x = rand.nextDouble();
-            if (x < this.getpMove()) {
-                int coords[] = findEmptyCase(true); // finds empty based on current this.matrix
-                if (coords != null) {
-                    // place person in destination in new_matrix
-                    new_p.setPos_i(coords[0]);
-                    new_p.setPos_j(coords[1]);
-                    new_matrix[coords[0]][coords[1]] = new_p;
-                    return; // original cell will be left null in new_matrix
-                }
+    /**
+     * Compute a whole new state of the matrix
+     */
+    private void propagatePolio1() {
+        int n = this.getDim();
+        RandomGenerator.SplittableGenerator stepRandom = random.nextStep();
+        Band[] bands = new Band[(n + BAND_ROWS - 1) / BAND_ROWS];
+        for (int b = 0; b < bands.length; b++) {
+            // the streams are split in the order of the bands, whatever the threads
+            bands[b] = new Band(b * BAND_ROWS, Math.min(n, (b + 1) * BAND_ROWS), stepRandom.split());
+        }
+        if (this.getpMove() == 0) {
+            propagateFrontier(bands);
+            history.add(Census.of(counts));
+            return;
+        }
+        infectious = null; // the people move: the infectious cells are found again if needed
+        grid.clearNext(); // start empty => nextState fills it
+
+        // Compute the new state of each cell (nextState writes into the back buffer)
+        if (executor == null) {
+            for (Band band : bands) {
+                band.compute(n);
             }
+        } else {
+            executor.invoke(new StepTask(bands, 0, bands.length));
         }
 
-        // If not moved, keep person in the same coordinates in new_matrix
-        new_p.setPos_i(i);
-        new_p.setPos_j(j);
-        new_matrix[i][j] = new_p;
+        // the moves go to cases empty in the current state: a later mover to the same case replaces an earlier one
+        Arrays.fill(counts, 0);
+        for (Band band : bands) {
+            for (int c = 0; c < Census.SIZE; c++) {
+                counts[c] += band.counts[c];
+            }
+            for (int m = 0; m < band.nbMoves; m++) {
+                int i = band.moves[3 * m];
+                int j = band.moves[3 * m + 1];
+                Census.count(counts, grid.getNext(i, j), -1); // the replaced mover, if any
+                Census.count(counts, band.moves[3 * m + 2], 1);
+                grid.setNext(i, j, band.moves[3 * m + 2]);
+            }
+        }
+        history.add(Census.of(counts));
+
+        // the computed state becomes the current one
+        grid.swap();
     }
 
     /**
-     * Compute a whole new state of the matrix
+     * Compute a new state of the matrix when nobody moves: only the
+     * infectious cells and their exposed neighbors are computed, in
+     * row-major order with the stream of their band, so the same random
+     * numbers are drawn as by a step over all the cells. The changes are
+     * written in the current state once they are all computed.
+     * 
+     * @param bands The bands of the step, with their random streams
      */
-    private void propagatePolio1() {
+    private void propagateFrontier(Band[] bands) {
         int n = this.getDim();
-        Person[][] new_matrix = new Person[n][n]; // start empty => nextState fills it
+        if (infectious == null) {
+            findInfectious();
+        }
 
-        // Compute the new state of each cell (nextState writes into new_matrix)
+        // The candidates: the infectious cells, and the healthy cells for which one is a neighbor
+        int[] candidates = new int[nbInfectious * NEIGHBORS.length];
+        int nbCandidates = 0;
+        for (int k = 0; k < nbInfectious; k++) {
+            int a = infectious[k] / n;
+            int b = infectious[k] % n;
+            candidates[nbCandidates++] = infectious[k];
+            // (i, j) is exposed by (i + di, j + dj) for the same shifts as hasNeighborInfectious
+            for (int nb = 0; nb < NEIGHBORS.length - 1; nb++) {
+                int i = a - NEIGHBORS[nb][0];
+                int j = b - NEIGHBORS[nb][1];
+                if (i >= 0 && i < n && j >= 0 && j < n) {
+                    int cell = grid.get(i, j);
+                    if (CityGrid.isOccupied(cell) && CityGrid.state(cell) == CityGrid.HEALTHY) {
+                        candidates[nbCandidates++] = i * n + j;
+                    }
+                }
+            }
+        }
+        Arrays.sort(candidates, 0, nbCandidates);
+
+        // Compute the candidates, the changes are kept until all are computed
+        int[] changes = new int[2 * nbCandidates]; // (index, cell) of each changed cell
+        int nbChanges = 0;
+        for (int k = 0; k < nbCandidates; k++) {
+            int index = candidates[k];
+            if (k > 0 && index == candidates[k - 1]) {
+                continue; // exposed by several infectious cells
+            }
+            int i = index / n;
+            int j = index % n;
+            int cell = grid.get(i, j);
+            int next = nextHealth(i, j, cell, bands[i / BAND_ROWS].rand);
+            if (next != cell) {
+                changes[2 * nbChanges] = index;
+                changes[2 * nbChanges + 1] = next;
+                nbChanges++;
+            }
+        }
+
+        // An infectious cell always changes, so the next infectious cells are among the changes
+        if (infectious.length < nbChanges) {
+            infectious = new int[Math.max(nbChanges, 2 * infectious.length)];
+        }
+        nbInfectious = 0;
+        for (int c = 0; c < nbChanges; c++) {
+            setCell(changes[2 * c] / n, changes[2 * c] % n, changes[2 * c + 1]);
+            if (isInfectious(changes[2 * c + 1])) {
+                infectious[nbInfectious++] = changes[2 * c];
+            }
+        }
+    }
+
+    /**
+     * Build the list of the infectious cells from the whole grid
+     */
+    private void findInfectious() {
+        int n = this.getDim();
+        infectious = new int[16];
+        nbInfectious = 0;
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < n; j++) {
-                this.nextState(i, j, new_matrix);
+                if (isInfectious(grid.get(i, j))) {
+                    if (nbInfectious == infectious.length) {
+                        infectious = Arrays.copyOf(infectious, 2 * nbInfectious);
+                    }
+                    infectious[nbInfectious++] = i * n + j;
+                }
+            }
+        }
+    }
+
+    /**
+     * Change a cell of the current state, and the counters
+     * 
+     * @param i The x position in the city
+     * @param j The y position in the city
+     * @param cell The new cell
+     */
+    private void setCell(int i, int j, int cell) {
+        Census.count(counts, grid.get(i, j), -1);
+        Census.count(counts, cell, 1);
+        grid.set(i, j, cell);
+    }
+
+    /**
+     * Check if a cell is a sick person or a carrier
+     */
+    private static boolean isInfectious(int cell) {
+        return CityGrid.isOccupied(cell)
+                && (CityGrid.state(cell) == CityGrid.SICK || (cell & CityGrid.CARRIER) != 0);
+    }
+
+    /**
+     * Rows [from, to) of the city, with their random stream and the people
+     * leaving them during the step
+     */
+    private final class Band {
+        private final int from;
+        private final int to;
+        private final RandomGenerator rand;
+        private int[] moves = new int[0]; // (i, j, cell) of each move, in row-major order of the origins
+        private int nbMoves;
+        private final int[] counts = new int[Census.SIZE]; // the people who stay in the band
+
+        Band(int from, int to, RandomGenerator rand) {
+            this.from = from;
+            this.to = to;
+            this.rand = rand;
+        }
+
+        void compute(int n) {
+            for (int i = from; i < to; i++) {
+                for (int j = 0; j < n; j++) {
+                    nextState(i, j, this);
+                }
             }
         }
 
-        // replace the current matrix by the computed one
-        this.matrix = new_matrix;
+        void addMove(int i, int j, int cell) {
+            if (3 * nbMoves == moves.length) {
+                moves = Arrays.copyOf(moves, Math.max(24, 2 * moves.length));
+            }
+            moves[3 * nbMoves] = i;
+            moves[3 * nbMoves + 1] = j;
+            moves[3 * nbMoves + 2] = cell;
+            nbMoves++;
+        }
+    }
+
+    /**
+     * Compute the bands [from, to) of a step, split in halves between the threads
+     */
+    private final class StepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final transient Band[] bands;
+        private final int from;
+        private final int to;
+
+        StepTask(Band[] bands, int from, int to) {
+            this.bands = bands;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new StepTask(bands, from, mid), new StepTask(bands, mid, to));
+            } else if (to > from) {
+                bands[from].compute(getDim());
+            }
+        }
     }
 
     /**
@@ -461,7 +710,7 @@ public class Polio {
         String c; // The characters do display at each cell
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < n; j++) {
-                Person p = this.matrix[i][j];
+                Person p = this.grid.view(i, j);
                 if (p == null) {
                     c = ".";
                 } else if (p.isCarrier() && p.isVax()) {
@@ -484,6 +733,57 @@ public class Polio {
 
     // Getters and setters
 
+    /**
+     * Getter for the current population, without reading the city
+     * 
+     * @return the census of the current state
+     */
+    public Census getCensus() {
+        return Census.of(counts);
+    }
+
+    /**
+     * Getter for the population over time
+     * 
+     * @return the census before the first step, then after each step
+     */
+    public List<Census> getHistory() {
+        return Collections.unmodifiableList(history);
+    }
+
+    /**
+     * Getter for the seed, to run the same simulation again
+     * 
+     * @return the seed of the simulation
+     */
+    public long getSeed() {
+        return random.getSeed();
+    }
+
+    /**
+     * Set the number of threads computing each step, at most one per band
+     * of BAND_ROWS rows: a city of a single band is computed in the calling
+     * thread
+     * 
+     * @param threads the number of threads, 1 to compute the steps in the calling thread
+     */
+    public void setThreads(int threads) {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        threads = Math.min(threads, (dim + BAND_ROWS - 1) / BAND_ROWS);
+        executor = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    /**
+     * Stop the threads set by setThreads, the next steps are computed in the
+     * calling thread
+     */
+    @Override
+    public void close() {
+        setThreads(1);
+    }
+
     /**
      * Getter for the city size
      * 
@@ -529,14 +829,21 @@ public class Polio {
         return pMove;
     }
 
+    /**
+     * Build a view of the city, for the display. Like a copy of the
+     * persons, the views do not have the carrier flag.
+     * 
+     * @return a new matrix of Person, null for the empty cases
+     */
     public Person[][] getMatrix() {
-        // Return a copy of the matrix
         int n = this.dim;
         Person[][] copy = new Person[n][n];
         for (int i = 0; i < n; i++) {
             for (int j = 0; j < n; j++) {
-                if (this.matrix[i][j] != null) {
-                    copy[i][j] = new Person(this.matrix[i][j]);
+                Person p = this.grid.view(i, j);
+                if (p != null) {
+                    p.setCarrier(false);
+                    copy[i][j] = p;
                 }
             }
         }
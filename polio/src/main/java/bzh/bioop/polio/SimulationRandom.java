@@ -0,0 +1,78 @@
+package bzh.bioop.polio;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+import java.util.random.RandomGeneratorFactory;
+
+/**
+ * The random numbers of a simulation, all derived from a single seed.
+ *
+ * The generator of the seed is split into independent streams: one for the
+ * creation of the city, one for the infections, and one for the steps,
+ * which is split again at each step and then for each band of the step.
+ * The streams are split in a fixed order in the calling thread, so with
+ * the same seed a simulation is the same, whatever the number of threads
+ * and whatever the number of infections before the first step.
+ *
+ * @author Vincent & Gwendoline
+ */
+public class SimulationRandom {
+
+    static final String ALGORITHM = "L64X128MixRandom";
+
+    private final long seed;
+    private final RandomGenerator city; // creation of the city
+    private final RandomGenerator infections; // infect()
+    private final RandomGenerator.SplittableGenerator steps; // split into the streams of the steps
+
+    /**
+     * Create the random numbers of a simulation
+     * @param seed the seed, the same seed gives the same simulation
+     */
+    public SimulationRandom(long seed) {
+        this.seed = seed;
+        RandomGenerator.SplittableGenerator root = RandomGeneratorFactory
+                .<RandomGenerator.SplittableGenerator>of(ALGORITHM).create(seed);
+        this.city = root.split();
+        this.infections = root.split();
+        this.steps = root.split();
+    }
+
+    /**
+     * Create the random numbers of a simulation with a random seed, given by getSeed
+     */
+    public SimulationRandom() {
+        this(ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * The stream of the creation of the city
+     */
+    RandomGenerator city() {
+        return city;
+    }
+
+    /**
+     * The stream of the infections at random positions
+     */
+    RandomGenerator infections() {
+        return infections;
+    }
+
+    /**
+     * The stream of the next step, to split for each band in the order of the
+     * bands
+     * @return a new stream at each call
+     */
+    RandomGenerator.SplittableGenerator nextStep() {
+        return steps.split();
+    }
+
+    /**
+     * Getter for the seed
+     * @return the seed of the simulation
+     */
+    public long getSeed() {
+        return seed;
+    }
+}
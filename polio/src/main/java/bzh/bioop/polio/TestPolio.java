@@ -27,9 +27,12 @@ public class TestPolio {
         double pMove = 0.1;                // prob of moving each step
         boolean enableCluster = false;     // enable people clustering
         boolean enableDisplay = false;      // graphical display
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), (citySize + 15) / 16); // one per band of 16 rows
 
         // === Create the Polio simulation ===
         Polio po = new Polio(citySize, density, pDeath, pSpread, pVax, pVaxPolio, pMove, enableCluster);
+        po.setThreads(threads);
+        System.out.println("Seed: " + po.getSeed());
         //System.out.println("=== Initial city ===");
         //po.cityDisplay();  // console display
 
@@ -85,8 +88,11 @@ public class TestPolio {
             }
         }
 
+        po.close(); // stop the threads of the steps
+
         // === Simulation finished ===
         System.out.println("\n=== Simulation ended after " + step + " steps ===");
+        System.out.println(po.getCensus());
         if (po.isEndOfTheWorld()) {
             System.out.println("Everyone is dead.");
         } else {